@@ -0,0 +1,126 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+import org.sonar.api.BatchExtension;
+import org.sonar.api.batch.InstantiationStrategy;
+import org.sonar.api.batch.bootstrap.ProjectReactor;
+import org.sonar.api.config.Settings;
+
+/**
+ * The coverage reports are aggregated once for the whole analysis, using the settings and base directory of the root project,
+ * and then partitioned by module base directory. The coverage of the files outside of the root project base directory is skipped while parsing.
+ * Both compare paths ignoring case when the file system of the root project does.
+ * Each coverage configuration, such as the one of each language, is aggregated on its own.
+ */
+@InstantiationStrategy(InstantiationStrategy.PER_BATCH)
+public class AggregatedCoverage implements BatchExtension {
+
+  private static final Ordering<String> CASE_INSENSITIVE_ORDERING = Ordering.from(String.CASE_INSENSITIVE_ORDER).compound(Ordering.<String>natural());
+
+  private final Settings settings;
+  private final WildcardPatternFileProvider wildcardPatternFileProvider;
+  private final BaseDirFileFilter fileFilter;
+  private final Ordering<String> filesOrdering;
+  private final Map<CoverageConfiguration, Aggregation> aggregations = Maps.newHashMap();
+
+  public AggregatedCoverage(Settings settings, ProjectReactor projectReactor, DirectoryListingCache directoryListingCache) {
+    this(settings, projectReactor.getRoot().getBaseDir(), directoryListingCache);
+  }
+
+  @VisibleForTesting
+  AggregatedCoverage(Settings settings, File baseDir, DirectoryListingCache directoryListingCache) {
+    this(settings, baseDir, FileSystemCaseSensitivity.isCaseInsensitive(baseDir), directoryListingCache);
+  }
+
+  @VisibleForTesting
+  AggregatedCoverage(Settings settings, File baseDir, boolean caseInsensitive, DirectoryListingCache directoryListingCache) {
+    this.settings = settings;
+    this.wildcardPatternFileProvider = new WildcardPatternFileProvider(baseDir, File.separator, directoryListingCache);
+    this.fileFilter = new BaseDirFileFilter(baseDir, caseInsensitive);
+    this.filesOrdering = fileFilter.isCaseInsensitive() ? CASE_INSENSITIVE_ORDERING : Ordering.<String>natural();
+  }
+
+  /**
+   * Whether any report property of the configuration is set on the root project, from which the reports are aggregated.
+   */
+  public synchronized boolean hasCoverageProperty(CoverageConfiguration coverageConf) {
+    return aggregation(coverageConf).coverageAggregator.hasCoverageProperty();
+  }
+
+  public synchronized Coverage coverage(CoverageConfiguration coverageConf) {
+    Aggregation aggregation = aggregation(coverageConf);
+    if (aggregation.coverage == null) {
+      aggregation.coverage = aggregation.coverageAggregator.aggregate(wildcardPatternFileProvider, fileFilter);
+      aggregation.files = ImmutableSortedSet.copyOf(filesOrdering, aggregation.coverage.files());
+    }
+    return aggregation.coverage;
+  }
+
+  private Aggregation aggregation(CoverageConfiguration coverageConf) {
+    Aggregation aggregation = aggregations.get(coverageConf);
+    if (aggregation == null) {
+      aggregation = new Aggregation(coverageAggregator(coverageConf));
+      aggregations.put(coverageConf, aggregation);
+    }
+    return aggregation;
+  }
+
+  @VisibleForTesting
+  CoverageAggregator coverageAggregator(CoverageConfiguration coverageConf) {
+    return new CoverageAggregator(coverageConf, settings);
+  }
+
+  public synchronized Set<String> files(CoverageConfiguration coverageConf, File moduleBaseDir) {
+    Aggregation aggregation = aggregations.get(coverageConf);
+    if (aggregation == null || aggregation.files == null) {
+      throw new IllegalStateException("The coverage must be aggregated before being partitioned by module");
+    }
+
+    String prefix = BaseDirFileFilter.prefix(moduleBaseDir);
+    Set<String> moduleFiles = aggregation.filesByModuleBaseDir.get(prefix);
+    if (moduleFiles == null) {
+      moduleFiles = aggregation.files.subSet(prefix, prefix + Character.MAX_VALUE);
+      aggregation.filesByModuleBaseDir.put(prefix, moduleFiles);
+    }
+    return moduleFiles;
+  }
+
+  private static class Aggregation {
+
+    private final CoverageAggregator coverageAggregator;
+    private Coverage coverage;
+    private ImmutableSortedSet<String> files;
+    private final Map<String, Set<String>> filesByModuleBaseDir = Maps.newHashMap();
+
+    public Aggregation(CoverageAggregator coverageAggregator) {
+      this.coverageAggregator = coverageAggregator;
+    }
+
+  }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import com.google.common.base.Predicate;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Keeps the canonical paths of the files under a base directory, typically the one of the root project,
+ * outside of which no file can be part of the analysis. Paths are compared ignoring case when the file system does.
+ * Unlike arbitrary predicates, it is identified by its {@link #key()}, so that the coverages it filtered can be persisted.
+ */
+public class BaseDirFileFilter implements Predicate<String> {
+
+  private final String prefix;
+  private final boolean caseInsensitive;
+
+  public BaseDirFileFilter(File baseDir) {
+    this(baseDir, FileSystemCaseSensitivity.isCaseInsensitive(baseDir));
+  }
+
+  public BaseDirFileFilter(File baseDir, boolean caseInsensitive) {
+    this.prefix = prefix(baseDir);
+    this.caseInsensitive = caseInsensitive;
+  }
+
+  static String prefix(File baseDir) {
+    try {
+      return baseDir.getCanonicalPath() + File.separatorChar;
+    } catch (IOException e) {
+      return baseDir.getAbsolutePath() + File.separatorChar;
+    }
+  }
+
+  public boolean isCaseInsensitive() {
+    return caseInsensitive;
+  }
+
+  public String key() {
+    return caseInsensitive ? prefix + "|caseInsensitive" : prefix;
+  }
+
+  @Override
+  public boolean apply(String path) {
+    return path.regionMatches(caseInsensitive, 0, prefix, 0, prefix.length());
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof BaseDirFileFilter)) {
+      return false;
+    }
+    BaseDirFileFilter other = (BaseDirFileFilter) obj;
+    return prefix.equals(other.prefix) && caseInsensitive == other.caseInsensitive;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * prefix.hashCode() + (caseInsensitive ? 1 : 0);
+  }
+
+}
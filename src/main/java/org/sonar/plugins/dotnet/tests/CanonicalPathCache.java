@@ -0,0 +1,86 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves each distinct source file path only once against the file system.
+ * Paths are first normalized lexically (redundant separators and "." segments), which requires no I/O,
+ * and the resulting canonical paths are interned so that all the reports share the same instances.
+ */
+public class CanonicalPathCache {
+
+  private final ConcurrentMap<String, String> canonicalPathsByPath = new ConcurrentHashMap<>();
+  private final Interner<String> canonicalPaths = Interners.newStrongInterner();
+
+  public String canonicalPath(String path) throws IOException {
+    String normalizedPath = normalize(new File(path).getAbsolutePath());
+
+    String canonicalPath = canonicalPathsByPath.get(normalizedPath);
+    if (canonicalPath == null) {
+      canonicalPath = canonicalPaths.intern(new File(normalizedPath).getCanonicalPath());
+      canonicalPathsByPath.put(normalizedPath, canonicalPath);
+    }
+    return canonicalPath;
+  }
+
+  int size() {
+    return canonicalPathsByPath.size();
+  }
+
+  /**
+   * ".." segments are kept, as resolving them lexically would be wrong in the presence of symbolic links.
+   */
+  static String normalize(String path) {
+    char separator = File.separatorChar;
+    int length = path.length();
+
+    int root = 0;
+    while (root < length && path.charAt(root) == separator) {
+      root++;
+    }
+
+    StringBuilder sb = new StringBuilder(length);
+    sb.append(path, 0, root);
+    int start = root;
+    while (start < length) {
+      int end = path.indexOf(separator, start);
+      if (end == -1) {
+        end = length;
+      }
+      if (end > start && !(end - start == 1 && path.charAt(start) == '.')) {
+        if (sb.length() > root) {
+          sb.append(separator);
+        }
+        sb.append(path, start, end);
+      }
+      start = end + 1;
+    }
+
+    return sb.length() == length ? path : sb.toString();
+  }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+public class CoberturaReportParser implements CoverageParser {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CoberturaReportParser.class);
+
+  private final CanonicalPathCache canonicalPathCache;
+
+  public CoberturaReportParser() {
+    this(new CanonicalPathCache());
+  }
+
+  public CoberturaReportParser(CanonicalPathCache canonicalPathCache) {
+    this.canonicalPathCache = canonicalPathCache;
+  }
+
+  @Override
+  public void parse(File file, Coverage coverage) {
+    LOG.info("Parsing the Cobertura report " + file.getAbsolutePath());
+    new Parser(file, coverage, canonicalPathCache).parse();
+  }
+
+  private static class Parser {
+
+    private final File file;
+    private XmlParserHelper xmlParserHelper;
+    private final List<String> sources = Lists.newArrayList();
+    private final Map<String, Integer> fileIdsByFilename = Maps.newHashMap();
+    private final Coverage coverage;
+    private final CanonicalPathCache canonicalPathCache;
+    private int fileId = FilePathDictionary.UNKNOWN_FILE_ID;
+    private int methodDepth = -1;
+
+    public Parser(File file, Coverage coverage, CanonicalPathCache canonicalPathCache) {
+      this.file = file;
+      this.coverage = coverage;
+      this.canonicalPathCache = canonicalPathCache;
+    }
+
+    public void parse() {
+      try {
+        xmlParserHelper = new XmlParserHelper(file);
+        xmlParserHelper.checkRootTag("coverage");
+        dispatchTags();
+      } finally {
+        if (xmlParserHelper != null) {
+          xmlParserHelper.close();
+        }
+      }
+    }
+
+    private void dispatchTags() {
+      String tagName;
+      while ((tagName = xmlParserHelper.nextTag()) != null) {
+        if (methodDepth != -1 && xmlParserHelper.depth() <= methodDepth) {
+          methodDepth = -1;
+        }
+
+        if ("line".equals(tagName)) {
+          handleLineTag();
+        } else if ("method".equals(tagName)) {
+          handleMethodTag();
+        } else if ("class".equals(tagName)) {
+          handleClassTag();
+        } else if ("source".equals(tagName)) {
+          handleSourceTag();
+        }
+      }
+    }
+
+    private void handleSourceTag() {
+      sources.add(xmlParserHelper.getElementText().trim());
+    }
+
+    /**
+     * Classes split over several elements, such as nested or compiler generated ones, repeat their file name.
+     */
+    private void handleClassTag() {
+      String filename = xmlParserHelper.getRequiredAttribute("filename");
+
+      Integer cachedFileId = fileIdsByFilename.get(filename);
+      if (cachedFileId == null) {
+        try {
+          cachedFileId = coverage.fileId(canonicalPathCache.canonicalPath(resolve(filename)));
+        } catch (IOException e) {
+          LOG.debug("Skipping the import of Cobertura code coverage for the invalid file path: " + filename
+            + " at line " + xmlParserHelper.stream().getLocation().getLineNumber(), e);
+          cachedFileId = FilePathDictionary.UNKNOWN_FILE_ID;
+        }
+        fileIdsByFilename.put(filename, cachedFileId);
+      }
+      fileId = cachedFileId;
+    }
+
+    /**
+     * Each method repeats its own lines, which are also listed by the class: only the latter are imported.
+     */
+    private void handleMethodTag() {
+      methodDepth = xmlParserHelper.depth();
+    }
+
+    private void handleLineTag() {
+      int line = xmlParserHelper.getRequiredIntAttribute("number");
+      int hits = xmlParserHelper.getRequiredIntAttribute("hits");
+
+      if (methodDepth == -1 && fileId != FilePathDictionary.UNKNOWN_FILE_ID) {
+        coverage.addHits(fileId, line, hits);
+      }
+    }
+
+    /**
+     * Class file names are relative to one of the report sources, unless they are absolute already.
+     */
+    private String resolve(String filename) {
+      if (sources.isEmpty() || new File(filename).isAbsolute()) {
+        return filename;
+      }
+
+      for (String source : sources) {
+        File candidate = new File(source, filename);
+        if (candidate.isFile()) {
+          return candidate.getPath();
+        }
+      }
+
+      return new File(sources.get(0), filename).getPath();
+    }
+
+  }
+
+}
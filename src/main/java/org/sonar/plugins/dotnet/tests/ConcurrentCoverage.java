@@ -0,0 +1,85 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Coverage which can be written to by several threads at once: each writer checks out its own {@link Coverage} shard,
+ * and the shards are merged by {@link #toCoverage()} once all writers are done.
+ * Shards are handed over explicitly rather than kept per thread, so that nothing outlives the aggregation on pool threads.
+ * Writers keep their shard for a whole batch of hits, such as a report page, so that the hits of a file stay in one shard.
+ */
+public class ConcurrentCoverage {
+
+  private final FilePathDictionary dictionary;
+  private final Predicate<String> fileFilter;
+  private final Queue<Coverage> shards = new ConcurrentLinkedQueue<>();
+  private final Queue<Coverage> idleShards = new ConcurrentLinkedQueue<>();
+
+  public ConcurrentCoverage() {
+    this(new FilePathDictionary());
+  }
+
+  public ConcurrentCoverage(FilePathDictionary dictionary) {
+    this(dictionary, Predicates.<String>alwaysTrue());
+  }
+
+  /**
+   * Shards, and the merged coverage, share the given dictionary and file filter, so that they merge on file ids.
+   */
+  public ConcurrentCoverage(FilePathDictionary dictionary, Predicate<String> fileFilter) {
+    this.dictionary = dictionary;
+    this.fileFilter = fileFilter;
+  }
+
+  public FilePathDictionary dictionary() {
+    return dictionary;
+  }
+
+  /**
+   * Checks out a shard for the exclusive use of the caller, until it is given back to {@link #releaseShard(Coverage)}.
+   * Released shards are reused, so that there are no more shards than concurrent writers.
+   */
+  public Coverage acquireShard() {
+    Coverage shard = idleShards.poll();
+    if (shard == null) {
+      shard = new Coverage(dictionary, fileFilter);
+      shards.add(shard);
+    }
+    return shard;
+  }
+
+  public void releaseShard(Coverage shard) {
+    idleShards.add(shard);
+  }
+
+  public Coverage toCoverage() {
+    Coverage coverage = new Coverage(dictionary, fileFilter);
+    for (Coverage shard : shards) {
+      coverage.mergeWith(shard);
+    }
+    return coverage;
+  }
+
+}
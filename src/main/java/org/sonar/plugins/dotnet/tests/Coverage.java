@@ -19,73 +19,163 @@
  */
 package org.sonar.plugins.dotnet.tests;
 
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Map;
 import java.util.Set;
+import javax.annotation.Nullable;
 
 public class Coverage {
 
-  private static final int MINIMUM_FILE_LINES = 100;
-  private static final int GROW_FACTOR = 2;
-  private static final int SPECIAL_HITS_NON_EXECUTABLE = -1;
-  private final Map<String, int[]> hitsByLineAndFile = Maps.newHashMap();
+  private static final int ENTRY_OVERHEAD = 64;
+  private final FilePathDictionary dictionary;
+  private final Predicate<String> fileFilter;
+  private final Map<Integer, LineHits> hitsByFileId = Maps.newHashMap();
+  private int lastFileId = FilePathDictionary.UNKNOWN_FILE_ID;
+  private LineHits lastHits;
+
+  public Coverage() {
+    this(new FilePathDictionary());
+  }
+
+  public Coverage(FilePathDictionary dictionary) {
+    this(dictionary, Predicates.<String>alwaysTrue());
+  }
+
+  public Coverage(FilePathDictionary dictionary, Predicate<String> fileFilter) {
+    this.dictionary = dictionary;
+    this.fileFilter = fileFilter;
+  }
+
+  public FilePathDictionary dictionary() {
+    return dictionary;
+  }
+
+  public Predicate<String> fileFilter() {
+    return fileFilter;
+  }
+
+  public int fileId(String file) {
+    return fileFilter.apply(file) ? dictionary.intern(file) : FilePathDictionary.UNKNOWN_FILE_ID;
+  }
 
   public void addHits(String file, int line, int hits) {
-    int[] oldHitsByLine = hitsByLineAndFile.get(file);
+    addHits(fileId(file), line, hits);
+  }
 
-    if (oldHitsByLine == null) {
-      oldHitsByLine = new int[Math.max(line, MINIMUM_FILE_LINES)];
-      for (int i = 0; i < oldHitsByLine.length; i++) {
-        oldHitsByLine[i] = SPECIAL_HITS_NON_EXECUTABLE;
-      }
-      hitsByLineAndFile.put(file, oldHitsByLine);
-    } else if (oldHitsByLine.length < line) {
-      int[] tmp = new int[line * GROW_FACTOR];
-      System.arraycopy(oldHitsByLine, 0, tmp, 0, oldHitsByLine.length);
-      for (int i = oldHitsByLine.length; i < tmp.length; i++) {
-        tmp[i] = SPECIAL_HITS_NON_EXECUTABLE;
-      }
-      oldHitsByLine = tmp;
-      hitsByLineAndFile.put(file, oldHitsByLine);
+  public void addHits(int fileId, int line, int hits) {
+    if (fileId != FilePathDictionary.UNKNOWN_FILE_ID) {
+      mutableLineHits(fileId).addHits(line, hits);
     }
+  }
 
-    int i = line - 1;
-    if (oldHitsByLine[i] == SPECIAL_HITS_NON_EXECUTABLE) {
-      oldHitsByLine[i] = 0;
+  private LineHits mutableLineHits(int fileId) {
+    if (fileId != lastFileId) {
+      LineHits lineHits = hitsByFileId.get(fileId);
+      if (lineHits == null) {
+        lineHits = new LineHits();
+        hitsByFileId.put(fileId, lineHits);
+      }
+      lastFileId = fileId;
+      lastHits = lineHits;
+    }
+    if (lastHits.isShared()) {
+      lastHits = lastHits.copy();
+      hitsByFileId.put(fileId, lastHits);
     }
-    oldHitsByLine[i] += hits;
+    return lastHits;
   }
 
   public Set<String> files() {
-    return hitsByLineAndFile.keySet();
+    ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+    for (Integer fileId : hitsByFileId.keySet()) {
+      builder.add(dictionary.path(fileId));
+    }
+    return builder.build();
   }
 
   public Map<Integer, Integer> hits(String file) {
-    int[] oldHitsByLine = hitsByLineAndFile.get(file);
-    if (oldHitsByLine == null) {
+    LineHits lineHits = existingLineHits(file);
+    if (lineHits == null) {
       return ImmutableMap.of();
     }
 
-    ImmutableMap.Builder<Integer, Integer> builder = ImmutableMap.builder();
-    for (int i = 0; i < oldHitsByLine.length; i++) {
-      if (oldHitsByLine[i] != SPECIAL_HITS_NON_EXECUTABLE) {
-        builder.put(i + 1, oldHitsByLine[i]);
-      }
+    return lineHits.toMap();
+  }
+
+  public void forEachHit(String file, LineHitsVisitor visitor) {
+    LineHits lineHits = existingLineHits(file);
+    if (lineHits != null) {
+      lineHits.accept(visitor);
     }
+  }
 
-    return builder.build();
+  @Nullable
+  private LineHits existingLineHits(String file) {
+    int fileId = dictionary.lookup(file);
+    return fileId == FilePathDictionary.UNKNOWN_FILE_ID ? null : hitsByFileId.get(fileId);
+  }
+
+  public long estimatedMemoryUsage() {
+    long memoryUsage = ENTRY_OVERHEAD;
+    for (LineHits lineHits : hitsByFileId.values()) {
+      memoryUsage += ENTRY_OVERHEAD + lineHits.estimatedMemoryUsage();
+    }
+    return memoryUsage;
+  }
+
+  /**
+   * Packs the hits of the lines which were added out of order, so that the coverage can then be read from several threads.
+   */
+  public void compact() {
+    for (LineHits lineHits : hitsByFileId.values()) {
+      lineHits.compact();
+    }
+  }
+
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeInt(hitsByFileId.size());
+    for (Map.Entry<Integer, LineHits> entry : hitsByFileId.entrySet()) {
+      out.writeUTF(dictionary.path(entry.getKey()));
+      entry.getValue().writeTo(out);
+    }
+  }
+
+  public static Coverage readFrom(DataInput in, FilePathDictionary dictionary) throws IOException {
+    return readFrom(in, dictionary, Predicates.<String>alwaysTrue());
+  }
+
+  public static Coverage readFrom(DataInput in, FilePathDictionary dictionary, Predicate<String> fileFilter) throws IOException {
+    Coverage coverage = new Coverage(dictionary, fileFilter);
+    int files = in.readInt();
+    for (int i = 0; i < files; i++) {
+      coverage.hitsByFileId.put(coverage.fileId(in.readUTF()), LineHits.readFrom(in));
+    }
+    return coverage;
   }
 
   public void mergeWith(Coverage otherCoverage) {
-    Map<String, int[]> other = otherCoverage.hitsByLineAndFile;
+    Map<Integer, LineHits> other = otherCoverage.hitsByFileId;
+    boolean sameDictionary = dictionary == otherCoverage.dictionary;
+    boolean sameFileFilter = fileFilter == Predicates.<String>alwaysTrue() || fileFilter.equals(otherCoverage.fileFilter);
 
-    for (Map.Entry<String, int[]> entry: other.entrySet()) {
-      String file = entry.getKey();
-      int[] otherHitsByLine = entry.getValue();
+    for (Map.Entry<Integer, LineHits> entry: other.entrySet()) {
+      int fileId = sameDictionary && sameFileFilter ? entry.getKey() : fileId(otherCoverage.dictionary.path(entry.getKey()));
+      if (fileId == FilePathDictionary.UNKNOWN_FILE_ID) {
+        continue;
+      }
+      LineHits otherLineHits = entry.getValue();
 
-      for (int i = otherHitsByLine.length - 1; i >= 0; i--) {
-        addHits(file, i + 1, otherHitsByLine[i]);
+      if (hitsByFileId.containsKey(fileId)) {
+        mutableLineHits(fileId).mergeWith(otherLineHits);
+      } else {
+        hitsByFileId.put(fileId, otherLineHits.share());
       }
     }
   }
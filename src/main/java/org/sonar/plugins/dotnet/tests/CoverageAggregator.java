@@ -20,13 +20,39 @@
 package org.sonar.plugins.dotnet.tests;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
 import java.io.File;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.sonar.api.BatchExtension;
+import org.sonar.api.CoreProperties;
 import org.sonar.api.config.Settings;
+import org.sonar.plugins.dotnet.tests.DirectoryListingCache.FileAttributes;
 
 public class CoverageAggregator implements BatchExtension {
 
+  private static final Logger LOG = LoggerFactory.getLogger(CoverageAggregator.class);
+
   private final CoverageConfiguration coverageConf;
   private final Settings settings;
   private final CoverageCache coverageCache;
@@ -34,14 +60,24 @@ public class CoverageAggregator implements BatchExtension {
   private final OpenCoverReportParser openCoverReportParser;
   private final DotCoverReportsAggregator dotCoverReportsAggregator;
   private final VisualStudioCoverageXmlReportParser visualStudioCoverageXmlReportParser;
+  private final DotCoverDetailedXmlReportParser dotCoverDetailedXmlReportParser;
+  private final CoberturaReportParser coberturaReportParser;
+  private final CoverletJsonReportParser coverletJsonReportParser;
 
   public CoverageAggregator(CoverageConfiguration coverageConf, Settings settings) {
+    this(coverageConf, settings, new CanonicalPathCache());
+  }
+
+  private CoverageAggregator(CoverageConfiguration coverageConf, Settings settings, CanonicalPathCache canonicalPathCache) {
     this(coverageConf, settings,
-      new CoverageCache(),
-      new NCover3ReportParser(),
-      new OpenCoverReportParser(),
-      new DotCoverReportsAggregator(new DotCoverReportParser()),
-      new VisualStudioCoverageXmlReportParser());
+      newCoverageCache(coverageConf, settings),
+      new NCover3ReportParser(canonicalPathCache),
+      new OpenCoverReportParser(canonicalPathCache),
+      new DotCoverReportsAggregator(new DotCoverReportParser(canonicalPathCache)),
+      new VisualStudioCoverageXmlReportParser(canonicalPathCache),
+      new DotCoverDetailedXmlReportParser(canonicalPathCache),
+      new CoberturaReportParser(canonicalPathCache),
+      new CoverletJsonReportParser(canonicalPathCache));
   }
 
   @VisibleForTesting
@@ -51,6 +87,20 @@ public class CoverageAggregator implements BatchExtension {
     OpenCoverReportParser openCoverReportParser,
     DotCoverReportsAggregator dotCoverReportsAggregator,
     VisualStudioCoverageXmlReportParser visualStudioCoverageXmlReportParser) {
+    this(coverageConf, settings, coverageCache, ncover3ReportParser, openCoverReportParser, dotCoverReportsAggregator, visualStudioCoverageXmlReportParser,
+      new DotCoverDetailedXmlReportParser(), new CoberturaReportParser(), new CoverletJsonReportParser());
+  }
+
+  @VisibleForTesting
+  public CoverageAggregator(CoverageConfiguration coverageConf, Settings settings,
+    CoverageCache coverageCache,
+    NCover3ReportParser ncover3ReportParser,
+    OpenCoverReportParser openCoverReportParser,
+    DotCoverReportsAggregator dotCoverReportsAggregator,
+    VisualStudioCoverageXmlReportParser visualStudioCoverageXmlReportParser,
+    DotCoverDetailedXmlReportParser dotCoverDetailedXmlReportParser,
+    CoberturaReportParser coberturaReportParser,
+    CoverletJsonReportParser coverletJsonReportParser) {
 
     this.coverageConf = coverageConf;
     this.settings = settings;
@@ -59,10 +109,46 @@ public class CoverageAggregator implements BatchExtension {
     this.openCoverReportParser = openCoverReportParser;
     this.dotCoverReportsAggregator = dotCoverReportsAggregator;
     this.visualStudioCoverageXmlReportParser = visualStudioCoverageXmlReportParser;
+    this.dotCoverDetailedXmlReportParser = dotCoverDetailedXmlReportParser;
+    this.coberturaReportParser = coberturaReportParser;
+    this.coverletJsonReportParser = coverletJsonReportParser;
+  }
+
+  private static CoverageCache newCoverageCache(CoverageConfiguration coverageConf, Settings settings) {
+    long maxMemoryUsage = Runtime.getRuntime().maxMemory() / 4;
+    String cacheSizePropertyKey = coverageConf.cacheSizePropertyKey();
+    if (cacheSizePropertyKey != null && settings.hasKey(cacheSizePropertyKey)) {
+      int cacheSize = settings.getInt(cacheSizePropertyKey);
+      Preconditions.checkArgument(cacheSize >= 0, "The property \"" + cacheSizePropertyKey + "\" must be a number of megabytes, got: " + cacheSize);
+      maxMemoryUsage = cacheSize * 1024L * 1024L;
+    }
+
+    return new CoverageCache(maxMemoryUsage, persistentCacheDirectory(coverageConf, settings));
+  }
+
+  @Nullable
+  private static File persistentCacheDirectory(CoverageConfiguration coverageConf, Settings settings) {
+    String persistentCacheDirectoryPropertyKey = coverageConf.persistentCacheDirectoryPropertyKey();
+    if (persistentCacheDirectoryPropertyKey == null || Strings.isNullOrEmpty(settings.getString(persistentCacheDirectoryPropertyKey))) {
+      return null;
+    }
+
+    File directory = new File(settings.getString(persistentCacheDirectoryPropertyKey));
+    if (directory.isAbsolute()) {
+      return directory;
+    }
+    String workingDirectory = settings.getString(CoreProperties.WORKING_DIRECTORY);
+    return new File(Strings.isNullOrEmpty(workingDirectory) ? CoreProperties.WORKING_DIRECTORY_DEFAULT_VALUE : workingDirectory, directory.getPath());
+  }
+
+  @VisibleForTesting
+  CoverageCache coverageCache() {
+    return coverageCache;
   }
 
   public boolean hasCoverageProperty() {
-    return hasNCover3ReportPaths() || hasOpenCoverReportPaths() || hasDotCoverReportPaths() || hasVisualStudioCoverageXmlReportPaths();
+    return hasNCover3ReportPaths() || hasOpenCoverReportPaths() || hasDotCoverReportPaths() || hasVisualStudioCoverageXmlReportPaths()
+      || hasDotCoverDetailedXmlReportPaths() || hasCoberturaReportPaths() || hasCoverletJsonReportPaths();
   }
 
   private boolean hasNCover3ReportPaths() {
@@ -81,32 +167,237 @@ public class CoverageAggregator implements BatchExtension {
     return settings.hasKey(coverageConf.visualStudioCoverageXmlPropertyKey());
   }
 
+  private boolean hasDotCoverDetailedXmlReportPaths() {
+    return hasKey(coverageConf.dotCoverDetailedXmlPropertyKey());
+  }
+
+  private boolean hasCoberturaReportPaths() {
+    return hasKey(coverageConf.coberturaPropertyKey());
+  }
+
+  private boolean hasCoverletJsonReportPaths() {
+    return hasKey(coverageConf.coverletJsonPropertyKey());
+  }
+
+  private boolean hasKey(@Nullable String propertyKey) {
+    return propertyKey != null && settings.hasKey(propertyKey);
+  }
+
+  private int parallelism() {
+    String parallelismPropertyKey = coverageConf.parallelismPropertyKey();
+    if (!hasKey(parallelismPropertyKey)) {
+      return 1;
+    }
+
+    int parallelism = settings.getInt(parallelismPropertyKey);
+    Preconditions.checkArgument(parallelism > 0, "The property \"" + parallelismPropertyKey + "\" must be a positive number of threads, got: " + parallelism);
+    return parallelism;
+  }
+
+  /**
+   * The returned coverage shares its file path dictionary with the cached coverages, so that merging them does not re-intern their paths.
+   */
+  public Coverage aggregate(WildcardPatternFileProvider wildcardPatternFileProvider) {
+    return aggregate(wildcardPatternFileProvider, Predicates.<String>alwaysTrue());
+  }
+
+  /**
+   * Same as {@link #aggregate(WildcardPatternFileProvider)}, the coverage of the files rejected by the filter being skipped while parsing.
+   */
+  public Coverage aggregate(WildcardPatternFileProvider wildcardPatternFileProvider, Predicate<String> fileFilter) {
+    return aggregate(wildcardPatternFileProvider, new Coverage(coverageCache.dictionary(), fileFilter));
+  }
+
   public Coverage aggregate(WildcardPatternFileProvider wildcardPatternFileProvider, Coverage coverage) {
+    Multimap<String, CoverageParser> parsersByPattern = LinkedHashMultimap.create();
+
     if (hasNCover3ReportPaths()) {
-      aggregate(wildcardPatternFileProvider, settings.getString(coverageConf.ncover3PropertyKey()), ncover3ReportParser, coverage);
+      addPatterns(settings.getString(coverageConf.ncover3PropertyKey()), ncover3ReportParser, parsersByPattern);
     }
 
     if (hasOpenCoverReportPaths()) {
-      aggregate(wildcardPatternFileProvider, settings.getString(coverageConf.openCoverPropertyKey()), openCoverReportParser, coverage);
+      addPatterns(settings.getString(coverageConf.openCoverPropertyKey()), openCoverReportParser, parsersByPattern);
     }
 
     if (hasDotCoverReportPaths()) {
-      aggregate(wildcardPatternFileProvider, settings.getString(coverageConf.dotCoverPropertyKey()), dotCoverReportsAggregator, coverage);
+      addPatterns(settings.getString(coverageConf.dotCoverPropertyKey()), dotCoverReportsAggregator, parsersByPattern);
     }
 
     if (hasVisualStudioCoverageXmlReportPaths()) {
-      aggregate(wildcardPatternFileProvider, settings.getString(coverageConf.visualStudioCoverageXmlPropertyKey()), visualStudioCoverageXmlReportParser, coverage);
+      addPatterns(settings.getString(coverageConf.visualStudioCoverageXmlPropertyKey()), visualStudioCoverageXmlReportParser, parsersByPattern);
+    }
+
+    if (hasDotCoverDetailedXmlReportPaths()) {
+      addPatterns(settings.getString(coverageConf.dotCoverDetailedXmlPropertyKey()), dotCoverDetailedXmlReportParser, parsersByPattern);
+    }
+
+    if (hasCoberturaReportPaths()) {
+      addPatterns(settings.getString(coverageConf.coberturaPropertyKey()), coberturaReportParser, parsersByPattern);
+    }
+
+    if (hasCoverletJsonReportPaths()) {
+      addPatterns(settings.getString(coverageConf.coverletJsonPropertyKey()), coverletJsonReportParser, parsersByPattern);
+    }
+
+    int parallelism = parallelism();
+    List<Report> reports = deduplicate(wildcardPatternFileProvider, reports(wildcardPatternFileProvider, parsersByPattern, parallelism));
+
+    if (parallelism > 1 && !reports.isEmpty()) {
+      aggregateInParallel(reports, parallelism, coverage);
+    } else {
+      for (Report report : reports) {
+        coverage.mergeWith(coverageCache.readCoverageFromCacheOrParse(report.parser, report.file, coverage.fileFilter()));
+      }
     }
 
     return coverage;
   }
 
-  private void aggregate(WildcardPatternFileProvider wildcardPatternFileProvider, String reportPaths, CoverageParser parser, Coverage aggregatedCoverage) {
+  private static void addPatterns(String reportPaths, CoverageParser parser, Multimap<String, CoverageParser> parsersByPattern) {
     for (String reportPathPattern : Splitter.on(',').trimResults().omitEmptyStrings().split(reportPaths)) {
-      for (File reportFile : wildcardPatternFileProvider.listFiles(reportPathPattern)) {
-        aggregatedCoverage.mergeWith(coverageCache.readCoverageFromCacheOrParse(parser, reportFile));
+      parsersByPattern.put(reportPathPattern, parser);
+    }
+  }
+
+  private static List<Report> reports(WildcardPatternFileProvider wildcardPatternFileProvider, Multimap<String, CoverageParser> parsersByPattern, int parallelism) {
+    List<Report> reports = Lists.newArrayList();
+    if (parsersByPattern.isEmpty()) {
+      return reports;
+    }
+
+    for (Map.Entry<File, Collection<String>> entry : wildcardPatternFileProvider.matchFiles(parsersByPattern.keySet(), parallelism).asMap().entrySet()) {
+      Set<CoverageParser> parsers = Sets.newLinkedHashSet();
+      for (String pattern : entry.getValue()) {
+        parsers.addAll(parsersByPattern.get(pattern));
+      }
+      for (CoverageParser parser : parsers) {
+        reports.add(new Report(parser, entry.getKey()));
+      }
+    }
+    return reports;
+  }
+
+  /**
+   * Reports are deduplicated by real path, and then by content among the reports of the same size.
+   * dotCover HTML reports are only deduplicated by real path, as their hits are in source pages next to the hashed index page.
+   */
+  private static List<Report> deduplicate(WildcardPatternFileProvider wildcardPatternFileProvider, List<Report> reports) {
+    Set<String> realPaths = Sets.newHashSet();
+    List<Report> uniqueReports = Lists.newArrayList();
+    Multimap<String, Report> reportsBySize = ArrayListMultimap.create();
+
+    for (Report report : reports) {
+      String parserKey = report.parser.getClass().getName();
+      if (!realPaths.add(parserKey + "|" + ReportFingerprint.realPath(report.file))) {
+        LOG.info("Skipping the code coverage report already imported from another path: " + report.file.getAbsolutePath());
+        continue;
+      }
+
+      uniqueReports.add(report);
+      if (report.parser instanceof DotCoverReportsAggregator) {
+        continue;
+      }
+      FileAttributes attributes = wildcardPatternFileProvider.attributes(report.file);
+      if (attributes != null && attributes.isFile()) {
+        reportsBySize.put(parserKey + "|" + attributes.size(), report);
+      }
+    }
+
+    Set<Report> duplicates = Sets.newHashSet();
+    for (Collection<Report> sameSizeReports : reportsBySize.asMap().values()) {
+      if (sameSizeReports.size() > 1) {
+        Set<String> contentHashes = Sets.newHashSet();
+        for (Report report : sameSizeReports) {
+          if (!contentHashes.add(ReportFingerprint.contentHash(report.file))) {
+            LOG.info("Skipping the code coverage report with the same contents as an already imported one: " + report.file.getAbsolutePath());
+            duplicates.add(report);
+          }
+        }
       }
     }
+
+    uniqueReports.removeAll(duplicates);
+    return uniqueReports;
+  }
+
+  private void aggregateInParallel(List<Report> reports, int parallelism, Coverage aggregatedCoverage) {
+    final Predicate<String> fileFilter = aggregatedCoverage.fileFilter();
+    List<Callable<Coverage>> parseTasks = Lists.newArrayList();
+    for (final Report report : reports) {
+      parseTasks.add(new Callable<Coverage>() {
+        @Override
+        public Coverage call() {
+          return coverageCache.readCoverageFromCacheOrParse(report.parser, report.file, fileFilter);
+        }
+      });
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      List<Coverage> coverages = Lists.newArrayList();
+      for (Future<Coverage> future : pool.invokeAll(parseTasks)) {
+        coverages.add(get(future));
+      }
+      aggregatedCoverage.mergeWith(pool.invoke(new MergeTask(coverages, 0, coverages.size())));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static <T> T get(Future<T> future) {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw Throwables.propagate(e);
+    }
+  }
+
+  private static class Report {
+
+    private final CoverageParser parser;
+    private final File file;
+
+    public Report(CoverageParser parser, File file) {
+      this.parser = parser;
+      this.file = file;
+    }
+
+  }
+
+  private static class MergeTask extends RecursiveTask<Coverage> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient List<Coverage> coverages;
+    private final int from;
+    private final int to;
+
+    public MergeTask(List<Coverage> coverages, int from, int to) {
+      this.coverages = coverages;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected Coverage compute() {
+      if (to - from == 1) {
+        return coverages.get(from);
+      }
+
+      int middle = (from + to) >>> 1;
+      MergeTask left = new MergeTask(coverages, from, middle);
+      left.fork();
+      Coverage right = new MergeTask(coverages, middle, to).compute();
+
+      Coverage merged = new Coverage(right.dictionary(), right.fileFilter());
+      merged.mergeWith(left.join());
+      merged.mergeWith(right);
+      return merged;
+    }
+
   }
 
 }
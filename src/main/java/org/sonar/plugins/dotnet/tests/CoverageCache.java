@@ -19,29 +19,233 @@
  */
 package org.sonar.plugins.dotnet.tests;
 
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.base.Throwables;
 import java.io.File;
-import java.util.WeakHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class CoverageCache {
 
   private static final Logger LOG = LoggerFactory.getLogger(CoverageCache.class);
+  private static final int DEFAULT_HEAP_FRACTION = 4;
 
-  private final WeakHashMap<String, Coverage> cache = new WeakHashMap<>();
+  private final long maxMemoryUsage;
+  private final PersistentCoverageCache persistentCache;
+  private final LinkedHashMap<CacheKey, CachedCoverage> cache = new LinkedHashMap<>(16, 0.75f, true);
+  private final FilePathDictionary dictionary = new FilePathDictionary();
+  private final ConcurrentMap<CacheKey, FutureTask<Coverage>> inFlightLoads = new ConcurrentHashMap<>();
+  private long memoryUsage;
+
+  public CoverageCache() {
+    this(Runtime.getRuntime().maxMemory() / DEFAULT_HEAP_FRACTION);
+  }
+
+  public CoverageCache(long maxMemoryUsage) {
+    this(maxMemoryUsage, null);
+  }
+
+  public CoverageCache(long maxMemoryUsage, @Nullable File persistentCacheDirectory) {
+    Preconditions.checkArgument(maxMemoryUsage >= 0, "The maximum memory usage of the coverage cache cannot be negative: " + maxMemoryUsage);
+    this.maxMemoryUsage = maxMemoryUsage;
+    this.persistentCache = persistentCacheDirectory == null ? null : new PersistentCoverageCache(persistentCacheDirectory);
+  }
 
   public Coverage readCoverageFromCacheOrParse(CoverageParser parser, File reportFile) {
-    String path = reportFile.getAbsolutePath();
-    Coverage coverage = cache.get(path);
+    return readCoverageFromCacheOrParse(parser, reportFile, Predicates.<String>alwaysTrue());
+  }
+
+  /**
+   * Coverages parsed with a file filter are only reused for an equal filter.
+   * Only unfiltered coverages and the ones filtered by a {@link BaseDirFileFilter} are written to the persistent cache,
+   * as other filters cannot be fingerprinted. dotCover HTML reports are never written to it either: their hits are in
+   * source pages which the fingerprint of the report, made of its index page only, does not cover.
+   */
+  public Coverage readCoverageFromCacheOrParse(final CoverageParser parser, final File reportFile, final Predicate<String> fileFilter) {
+    String path = ReportFingerprint.realPath(reportFile);
+    CacheKey key = new CacheKey(parser.getClass().getName(), path, fileFilter);
+    Coverage coverage = get(key);
+    if (coverage != null) {
+      LOG.info("Successfully retrieved this code coverage report results from the cache: " + path);
+      return coverage;
+    }
+
+    FutureTask<Coverage> load = new FutureTask<>(new Callable<Coverage>() {
+      @Override
+      public Coverage call() {
+        String persistentKey = persistentCache == null ? null : persistentKey(parser, fileFilter);
+        return persistentKey == null ?
+          parse(parser, reportFile, fileFilter) :
+          readFromPersistentCacheOrParse(parser, reportFile, fileFilter, persistentKey);
+      }
+    });
+    FutureTask<Coverage> inFlightLoad = inFlightLoads.putIfAbsent(key, load);
+    if (inFlightLoad != null) {
+      LOG.info("Waiting for the concurrent parsing of this code coverage report: " + path);
+      return await(inFlightLoad);
+    }
+
+    try {
+      coverage = get(key);
+      if (coverage == null) {
+        load.run();
+        coverage = await(load);
+        put(key, coverage);
+      } else {
+        LOG.info("Successfully retrieved this code coverage report results from the cache: " + path);
+      }
+      return coverage;
+    } finally {
+      inFlightLoads.remove(key, load);
+    }
+  }
+
+  private static Coverage await(FutureTask<Coverage> load) {
+    try {
+      return load.get();
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw Throwables.propagate(e);
+    }
+  }
+
+  @Nullable
+  private static String persistentKey(CoverageParser parser, Predicate<String> fileFilter) {
+    if (parser instanceof DotCoverReportsAggregator) {
+      return null;
+    }
+
+    String parserKey = parser.getClass().getName();
+    if (fileFilter == Predicates.<String>alwaysTrue()) {
+      return parserKey;
+    }
+    return fileFilter instanceof BaseDirFileFilter ? parserKey + "|" + ((BaseDirFileFilter) fileFilter).key() : null;
+  }
+
+  private Coverage readFromPersistentCacheOrParse(CoverageParser parser, File reportFile, Predicate<String> fileFilter, String persistentKey) {
+    ReportFingerprint fingerprint = ReportFingerprint.of(reportFile);
+
+    Coverage coverage = persistentCache.read(fingerprint, persistentKey, dictionary, fileFilter);
     if (coverage == null) {
-      coverage = new Coverage();
-      parser.parse(reportFile, coverage);
-      cache.put(path, coverage);
-      LOG.info("Adding this code coverage report to the cache for later reuse: " + path);
+      coverage = parse(parser, reportFile, fileFilter);
+      persistentCache.write(fingerprint, persistentKey, coverage);
     } else {
-      LOG.info("Successfully retrieved this code coverage report results from the cache: " + path);
+      LOG.info("Successfully retrieved this code coverage report results from the persistent cache: " + fingerprint.path());
     }
     return coverage;
   }
 
+  private Coverage parse(CoverageParser parser, File reportFile, Predicate<String> fileFilter) {
+    Coverage coverage = new Coverage(dictionary, fileFilter);
+    parser.parse(reportFile, coverage);
+    coverage.compact();
+    return coverage;
+  }
+
+  @Nullable
+  private Coverage get(CacheKey key) {
+    synchronized (cache) {
+      CachedCoverage cachedCoverage = cache.get(key);
+      return cachedCoverage == null ? null : cachedCoverage.coverage;
+    }
+  }
+
+  private void put(CacheKey key, Coverage coverage) {
+    long estimatedMemoryUsage = coverage.estimatedMemoryUsage();
+    if (estimatedMemoryUsage > maxMemoryUsage) {
+      LOG.info("Not caching this code coverage report, as its estimated size of " + estimatedMemoryUsage + " bytes exceeds the cache size of "
+        + maxMemoryUsage + " bytes: " + key.path);
+      return;
+    }
+
+    synchronized (cache) {
+      CachedCoverage previous = cache.put(key, new CachedCoverage(coverage, estimatedMemoryUsage));
+      if (previous != null) {
+        memoryUsage -= previous.estimatedMemoryUsage;
+      }
+      memoryUsage += estimatedMemoryUsage;
+
+      Iterator<Map.Entry<CacheKey, CachedCoverage>> it = cache.entrySet().iterator();
+      while (memoryUsage > maxMemoryUsage) {
+        Map.Entry<CacheKey, CachedCoverage> eldest = it.next();
+        memoryUsage -= eldest.getValue().estimatedMemoryUsage;
+        it.remove();
+        LOG.debug("Evicting this code coverage report from the cache: " + eldest.getKey().path);
+      }
+    }
+    LOG.info("Adding this code coverage report to the cache for later reuse: " + key.path);
+  }
+
+  FilePathDictionary dictionary() {
+    return dictionary;
+  }
+
+  long maxMemoryUsage() {
+    return maxMemoryUsage;
+  }
+
+  @Nullable
+  PersistentCoverageCache persistentCache() {
+    return persistentCache;
+  }
+
+  long memoryUsage() {
+    synchronized (cache) {
+      return memoryUsage;
+    }
+  }
+
+  private static class CacheKey {
+
+    private final String parserKey;
+    private final String path;
+    private final Predicate<String> fileFilter;
+
+    public CacheKey(String parserKey, String path, Predicate<String> fileFilter) {
+      this.parserKey = parserKey;
+      this.path = path;
+      this.fileFilter = fileFilter;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof CacheKey)) {
+        return false;
+      }
+      CacheKey other = (CacheKey) obj;
+      return parserKey.equals(other.parserKey) && path.equals(other.path) && fileFilter.equals(other.fileFilter);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * parserKey.hashCode() + path.hashCode()) + fileFilter.hashCode();
+    }
+
+  }
+
+  private static class CachedCoverage {
+
+    private final Coverage coverage;
+    private final long estimatedMemoryUsage;
+
+    public CachedCoverage(Coverage coverage, long estimatedMemoryUsage) {
+      this.coverage = coverage;
+      this.estimatedMemoryUsage = estimatedMemoryUsage;
+    }
+
+  }
+
 }
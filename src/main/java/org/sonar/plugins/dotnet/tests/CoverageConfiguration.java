@@ -19,6 +19,14 @@
  */
 package org.sonar.plugins.dotnet.tests;
 
+import java.util.Arrays;
+import javax.annotation.Nullable;
+
+/**
+ * The property keys of the original report formats are given to the constructor. The other report formats, and the tuning properties,
+ * are opted into with the {@code with...} methods, which return a configuration copy: for instance
+ * {@code new CoverageConfiguration("cs", ncover3Key, openCoverKey, dotCoverKey, visualStudioKey).withCobertura(coberturaKey)}.
+ */
 public class CoverageConfiguration {
 
   private final String languageKey;
@@ -26,6 +34,12 @@ public class CoverageConfiguration {
   private final String openCoverPropertyKey;
   private final String dotCoverPropertyKey;
   private final String visualStudioCoverageXmlPropertyKey;
+  private String dotCoverDetailedXmlPropertyKey;
+  private String coberturaPropertyKey;
+  private String coverletJsonPropertyKey;
+  private String parallelismPropertyKey;
+  private String cacheSizePropertyKey;
+  private String persistentCacheDirectoryPropertyKey;
 
   public CoverageConfiguration(String languageKey, String ncover3PropertyKey, String openCoverPropertyKey, String dotCoverPropertyKey, String visualStudioCoverageXmlPropertyKey) {
     this.languageKey = languageKey;
@@ -35,6 +49,62 @@ public class CoverageConfiguration {
     this.visualStudioCoverageXmlPropertyKey = visualStudioCoverageXmlPropertyKey;
   }
 
+  private CoverageConfiguration(CoverageConfiguration other) {
+    this(other.languageKey, other.ncover3PropertyKey, other.openCoverPropertyKey, other.dotCoverPropertyKey, other.visualStudioCoverageXmlPropertyKey);
+    this.dotCoverDetailedXmlPropertyKey = other.dotCoverDetailedXmlPropertyKey;
+    this.coberturaPropertyKey = other.coberturaPropertyKey;
+    this.coverletJsonPropertyKey = other.coverletJsonPropertyKey;
+    this.parallelismPropertyKey = other.parallelismPropertyKey;
+    this.cacheSizePropertyKey = other.cacheSizePropertyKey;
+    this.persistentCacheDirectoryPropertyKey = other.persistentCacheDirectoryPropertyKey;
+  }
+
+  public CoverageConfiguration withDotCoverDetailedXml(String dotCoverDetailedXmlPropertyKey) {
+    CoverageConfiguration copy = new CoverageConfiguration(this);
+    copy.dotCoverDetailedXmlPropertyKey = dotCoverDetailedXmlPropertyKey;
+    return copy;
+  }
+
+  public CoverageConfiguration withCobertura(String coberturaPropertyKey) {
+    CoverageConfiguration copy = new CoverageConfiguration(this);
+    copy.coberturaPropertyKey = coberturaPropertyKey;
+    return copy;
+  }
+
+  public CoverageConfiguration withCoverletJson(String coverletJsonPropertyKey) {
+    CoverageConfiguration copy = new CoverageConfiguration(this);
+    copy.coverletJsonPropertyKey = coverletJsonPropertyKey;
+    return copy;
+  }
+
+  /**
+   * The property holds the number of threads used to find and parse the reports, one by default.
+   */
+  public CoverageConfiguration withParallelism(String parallelismPropertyKey) {
+    CoverageConfiguration copy = new CoverageConfiguration(this);
+    copy.parallelismPropertyKey = parallelismPropertyKey;
+    return copy;
+  }
+
+  /**
+   * The property holds the memory, in megabytes, in which parsed reports are kept for reuse, a quarter of the maximum heap by default.
+   */
+  public CoverageConfiguration withCacheSize(String cacheSizePropertyKey) {
+    CoverageConfiguration copy = new CoverageConfiguration(this);
+    copy.cacheSizePropertyKey = cacheSizePropertyKey;
+    return copy;
+  }
+
+  /**
+   * The property holds the directory in which parsed reports are persisted for reuse by the next analyses, none by default.
+   * A relative directory is resolved against the working directory of the analysis: an absolute one outlives the cleaning of the latter.
+   */
+  public CoverageConfiguration withPersistentCacheDirectory(String persistentCacheDirectoryPropertyKey) {
+    CoverageConfiguration copy = new CoverageConfiguration(this);
+    copy.persistentCacheDirectoryPropertyKey = persistentCacheDirectoryPropertyKey;
+    return copy;
+  }
+
   public String languageKey() {
     return languageKey;
   }
@@ -55,4 +125,55 @@ public class CoverageConfiguration {
     return visualStudioCoverageXmlPropertyKey;
   }
 
+  @Nullable
+  public String dotCoverDetailedXmlPropertyKey() {
+    return dotCoverDetailedXmlPropertyKey;
+  }
+
+  @Nullable
+  public String coberturaPropertyKey() {
+    return coberturaPropertyKey;
+  }
+
+  @Nullable
+  public String coverletJsonPropertyKey() {
+    return coverletJsonPropertyKey;
+  }
+
+  @Nullable
+  public String parallelismPropertyKey() {
+    return parallelismPropertyKey;
+  }
+
+  @Nullable
+  public String cacheSizePropertyKey() {
+    return cacheSizePropertyKey;
+  }
+
+  @Nullable
+  public String persistentCacheDirectoryPropertyKey() {
+    return persistentCacheDirectoryPropertyKey;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof CoverageConfiguration)) {
+      return false;
+    }
+    return Arrays.equals(propertyKeys(), ((CoverageConfiguration) obj).propertyKeys());
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(propertyKeys());
+  }
+
+  private Object[] propertyKeys() {
+    return new Object[] {languageKey, ncover3PropertyKey, openCoverPropertyKey, dotCoverPropertyKey, visualStudioCoverageXmlPropertyKey, dotCoverDetailedXmlPropertyKey,
+      coberturaPropertyKey, coverletJsonPropertyKey, parallelismPropertyKey, cacheSizePropertyKey, persistentCacheDirectoryPropertyKey};
+  }
+
 }
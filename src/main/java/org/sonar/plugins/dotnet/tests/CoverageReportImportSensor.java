@@ -26,53 +26,88 @@ import org.sonar.api.batch.Sensor;
 import org.sonar.api.batch.SensorContext;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.fs.InputFile;
-import org.sonar.api.batch.fs.InputFile.Type;
 import org.sonar.api.measures.CoverageMeasuresBuilder;
 import org.sonar.api.measures.Measure;
 import org.sonar.api.resources.Project;
 
 import java.io.File;
-import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
 
 public class CoverageReportImportSensor implements Sensor {
 
   private static final Logger LOG = LoggerFactory.getLogger(CoverageReportImportSensor.class);
 
-  private final WildcardPatternFileProvider wildcardPatternFileProvider = new WildcardPatternFileProvider(new File("."), File.separator);
+  private final WildcardPatternFileProvider wildcardPatternFileProvider;
   private final CoverageConfiguration coverageConf;
   private final CoverageAggregator coverageAggregator;
   private final FileSystem fs;
+  private final AggregatedCoverage aggregatedCoverage;
 
   public CoverageReportImportSensor(CoverageConfiguration coverageConf, CoverageAggregator coverageAggregator, FileSystem fs) {
+    this(coverageConf, coverageAggregator, fs, null);
+  }
+
+  /**
+   * Without an aggregated coverage, each module aggregates the coverage reports on its own, with its own settings.
+   */
+  public CoverageReportImportSensor(CoverageConfiguration coverageConf, CoverageAggregator coverageAggregator, FileSystem fs, @Nullable AggregatedCoverage aggregatedCoverage) {
+    this(coverageConf, coverageAggregator, fs, aggregatedCoverage, new DirectoryListingCache());
+  }
+
+  public CoverageReportImportSensor(CoverageConfiguration coverageConf, CoverageAggregator coverageAggregator, FileSystem fs, @Nullable AggregatedCoverage aggregatedCoverage,
+    DirectoryListingCache directoryListingCache) {
+    this.wildcardPatternFileProvider = new WildcardPatternFileProvider(new File("."), File.separator, directoryListingCache);
     this.coverageConf = coverageConf;
     this.coverageAggregator = coverageAggregator;
     this.fs = fs;
+    this.aggregatedCoverage = aggregatedCoverage;
   }
 
   @Override
   public boolean shouldExecuteOnProject(Project project) {
-    return coverageAggregator.hasCoverageProperty();
+    return aggregatedCoverage == null ? coverageAggregator.hasCoverageProperty() : aggregatedCoverage.hasCoverageProperty(coverageConf);
   }
 
   @Override
   public void analyse(Project project, SensorContext context) {
-    analyze(context, new Coverage());
+    if (aggregatedCoverage == null) {
+      Coverage coverage = coverageAggregator.aggregate(wildcardPatternFileProvider);
+      saveMeasures(context, coverage, coverage.files());
+    } else {
+      Coverage coverage = aggregatedCoverage.coverage(coverageConf);
+      saveMeasures(context, coverage, aggregatedCoverage.files(coverageConf, fs.baseDir()));
+    }
   }
 
   @VisibleForTesting
   void analyze(SensorContext context, Coverage coverage) {
     coverageAggregator.aggregate(wildcardPatternFileProvider, coverage);
-    CoverageMeasuresBuilder coverageMeasureBuilder = CoverageMeasuresBuilder.create();
+    saveMeasures(context, coverage, coverage.files());
+  }
 
-    for (String filePath : coverage.files()) {
-      InputFile inputFile = fs.inputFile(fs.predicates().and(fs.predicates().hasType(Type.MAIN), fs.predicates().hasAbsolutePath(filePath)));
+  private void saveMeasures(SensorContext context, Coverage coverage, Set<String> files) {
+    final CoverageMeasuresBuilder coverageMeasureBuilder = CoverageMeasuresBuilder.create();
+    LineHitsVisitor measureBuilderVisitor = new LineHitsVisitor() {
+      @Override
+      public void visitLine(int line, int hits) {
+        coverageMeasureBuilder.setHits(line, hits);
+      }
+    };
+
+    if (files.isEmpty()) {
+      return;
+    }
+
+    File baseDir = fs.baseDir();
+    InputFileIndex inputFileIndex = new InputFileIndex(fs, baseDir != null && FileSystemCaseSensitivity.isCaseInsensitive(baseDir));
+    for (String filePath : files) {
+      InputFile inputFile = inputFileIndex.inputFile(filePath);
 
       if (inputFile != null) {
         if (coverageConf.languageKey().equals(inputFile.language())) {
           coverageMeasureBuilder.reset();
-          for (Map.Entry<Integer, Integer> entry : coverage.hits(filePath).entrySet()) {
-            coverageMeasureBuilder.setHits(entry.getKey(), entry.getValue());
-          }
+          coverage.forEachHit(filePath, measureBuilderVisitor);
 
           for (Measure measure : coverageMeasureBuilder.createMeasures()) {
             context.saveMeasure(inputFile, measure);
@@ -0,0 +1,365 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.io.Closeables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * Parses the native coverlet JSON report: modules, then documents, classes and methods, each method having its "Lines" hits.
+ */
+public class CoverletJsonReportParser implements CoverageParser {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CoverletJsonReportParser.class);
+
+  private final CanonicalPathCache canonicalPathCache;
+
+  public CoverletJsonReportParser() {
+    this(new CanonicalPathCache());
+  }
+
+  public CoverletJsonReportParser(CanonicalPathCache canonicalPathCache) {
+    this.canonicalPathCache = canonicalPathCache;
+  }
+
+  @Override
+  public void parse(File file, Coverage coverage) {
+    LOG.info("Parsing the coverlet JSON report " + file.getAbsolutePath());
+    new Parser(file, coverage, canonicalPathCache).parse();
+  }
+
+  private static class Parser {
+
+    private final File file;
+    private final Coverage coverage;
+    private final CanonicalPathCache canonicalPathCache;
+    private JsonTokenizer json;
+
+    public Parser(File file, Coverage coverage, CanonicalPathCache canonicalPathCache) {
+      this.file = file;
+      this.coverage = coverage;
+      this.canonicalPathCache = canonicalPathCache;
+    }
+
+    public void parse() {
+      Reader reader = null;
+      try {
+        reader = new InputStreamReader(new FileInputStream(file), Charsets.UTF_8);
+        json = new JsonTokenizer(file, reader);
+        parseModules();
+      } catch (IOException e) {
+        throw Throwables.propagate(e);
+      } finally {
+        Closeables.closeQuietly(reader);
+      }
+    }
+
+    private void parseModules() throws IOException {
+      json.beginObject();
+      while (json.hasNextMember()) {
+        json.nextName();
+        json.beginObject();
+        while (json.hasNextMember()) {
+          parseDocument(json.nextName());
+        }
+      }
+      json.endDocument();
+    }
+
+    private void parseDocument(String path) throws IOException {
+      int fileId;
+      try {
+        fileId = coverage.fileId(canonicalPathCache.canonicalPath(path));
+      } catch (IOException e) {
+        LOG.debug("Skipping the import of coverlet code coverage for the invalid file path: " + path + " at line " + json.line(), e);
+        fileId = FilePathDictionary.UNKNOWN_FILE_ID;
+      }
+
+      if (fileId == FilePathDictionary.UNKNOWN_FILE_ID) {
+        json.skipValue();
+        return;
+      }
+
+      json.beginObject();
+      while (json.hasNextMember()) {
+        json.nextName();
+        json.beginObject();
+        while (json.hasNextMember()) {
+          json.nextName();
+          parseMethod(fileId);
+        }
+      }
+    }
+
+    private void parseMethod(int fileId) throws IOException {
+      json.beginObject();
+      while (json.hasNextMember()) {
+        if ("Lines".equals(json.nextName())) {
+          json.beginObject();
+          while (json.hasNextMember()) {
+            int line = json.nextIntName();
+            coverage.addHits(fileId, line, json.nextInt());
+          }
+        } else {
+          json.skipValue();
+        }
+      }
+    }
+
+  }
+
+  /**
+   * Minimal pull tokenizer, reading the report through a fixed char buffer without building any tree.
+   */
+  private static class JsonTokenizer {
+
+    private final File file;
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private final StringBuilder string = new StringBuilder();
+    private int position;
+    private int limit;
+    private int line = 1;
+    private boolean firstMember;
+
+    public JsonTokenizer(File file, Reader reader) {
+      this.file = file;
+      this.reader = reader;
+    }
+
+    public int line() {
+      return line;
+    }
+
+    public void beginObject() throws IOException {
+      expect('{');
+      firstMember = true;
+    }
+
+    /**
+     * Consumes the separator before the next member, or the end of the current object.
+     */
+    public boolean hasNextMember() throws IOException {
+      int c = peek();
+      if (c == '}') {
+        position++;
+        firstMember = false;
+        return false;
+      }
+
+      if (!firstMember) {
+        expect(',');
+      }
+      firstMember = false;
+      return true;
+    }
+
+    public String nextName() throws IOException {
+      String name = nextString();
+      expect(':');
+      return name;
+    }
+
+    public int nextIntName() throws IOException {
+      expect('"');
+      int value = readInt();
+      if (read() != '"') {
+        throw parseError("Expected an integer member name");
+      }
+      expect(':');
+      return value;
+    }
+
+    public int nextInt() throws IOException {
+      peek();
+      return readInt();
+    }
+
+    public void skipValue() throws IOException {
+      int depth = 0;
+      do {
+        int c = peek();
+        if (c == -1) {
+          throw parseError("Unexpected end of file");
+        } else if (c == '"') {
+          nextString();
+        } else if (c == '{' || c == '[') {
+          position++;
+          depth++;
+        } else if (c == '}' || c == ']') {
+          position++;
+          depth--;
+        } else if (c == ',' || c == ':') {
+          position++;
+        } else {
+          skipLiteral();
+        }
+      } while (depth > 0);
+
+      firstMember = false;
+    }
+
+    private void skipLiteral() throws IOException {
+      int c;
+      while ((c = peekChar()) != -1 && c != ',' && c != ':' && c != '}' && c != ']' && !Character.isWhitespace(c)) {
+        position++;
+      }
+    }
+
+    public void endDocument() throws IOException {
+      if (peek() != -1) {
+        throw parseError("Expected the end of the file");
+      }
+    }
+
+    private String nextString() throws IOException {
+      expect('"');
+      string.setLength(0);
+      int c;
+      while ((c = read()) != '"') {
+        if (c == -1) {
+          throw parseError("Unterminated string");
+        } else if (c == '\\') {
+          string.append(readEscaped());
+        } else {
+          string.append((char) c);
+        }
+      }
+      return string.toString();
+    }
+
+    private char readEscaped() throws IOException {
+      int c = read();
+      switch (c) {
+        case 'b':
+          return '\b';
+        case 'f':
+          return '\f';
+        case 'n':
+          return '\n';
+        case 'r':
+          return '\r';
+        case 't':
+          return '\t';
+        case 'u':
+          int value = 0;
+          for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(read(), 16);
+            if (digit == -1) {
+              throw parseError("Invalid unicode escape sequence");
+            }
+            value = value * 16 + digit;
+          }
+          return (char) value;
+        case '"':
+        case '\\':
+        case '/':
+          return (char) c;
+        default:
+          throw parseError("Invalid escape sequence");
+      }
+    }
+
+    private int readInt() throws IOException {
+      boolean negative = peekChar() == '-';
+      if (negative) {
+        position++;
+      }
+
+      long value = 0;
+      int digits = 0;
+      int c;
+      while ((c = peekChar()) >= '0' && c <= '9') {
+        position++;
+        value = value * 10 + c - '0';
+        if (value > Integer.MAX_VALUE) {
+          throw parseError("Integer out of range");
+        }
+        digits++;
+      }
+
+      if (digits == 0) {
+        throw parseError("Expected an integer");
+      }
+      return (int) (negative ? -value : value);
+    }
+
+    private void expect(char expected) throws IOException {
+      if (peek() != expected) {
+        throw parseError("Expected '" + expected + "'");
+      }
+      position++;
+    }
+
+    /**
+     * Skips the whitespaces, and returns the next character without consuming it, or -1 at the end of the file.
+     */
+    private int peek() throws IOException {
+      int c;
+      while ((c = peekChar()) == ' ' || c == '\t' || c == '\r' || c == '\n' || c == '\uFEFF') {
+        if (c == '\n') {
+          line++;
+        }
+        position++;
+      }
+      return c;
+    }
+
+    private int peekChar() throws IOException {
+      if (position == limit && !fill()) {
+        return -1;
+      }
+      return buffer[position];
+    }
+
+    private int read() throws IOException {
+      int c = peekChar();
+      if (c != -1) {
+        position++;
+      }
+      return c;
+    }
+
+    private boolean fill() throws IOException {
+      limit = reader.read(buffer);
+      position = 0;
+      if (limit <= 0) {
+        limit = 0;
+        return false;
+      }
+      return true;
+    }
+
+    private ParseErrorException parseError(String message) {
+      return new ParseErrorException(message + " in " + file.getAbsolutePath() + " at line " + line);
+    }
+
+  }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
+import org.sonar.api.BatchExtension;
+import org.sonar.api.batch.InstantiationStrategy;
+
+/**
+ * Directory listings and file attributes read during the analysis, so that each directory is read from disk at most once
+ * while it stays in the cache. Files modified or deleted after they were first read are not seen, but missing files and
+ * unreadable directories are not cached, so that files created later in the analysis are.
+ */
+@InstantiationStrategy(InstantiationStrategy.PER_BATCH)
+public class DirectoryListingCache implements BatchExtension {
+
+  private static final int DEFAULT_MAXIMUM_SIZE = 100000;
+
+  private final Cache<Path, List<Path>> listings;
+  private final Cache<Path, FileAttributes> attributes;
+
+  public DirectoryListingCache() {
+    this(DEFAULT_MAXIMUM_SIZE);
+  }
+
+  /**
+   * Each of the listings and attributes caches holds at most the given number of paths, the least recently used being evicted first.
+   */
+  @VisibleForTesting
+  DirectoryListingCache(int maximumSize) {
+    this.listings = CacheBuilder.newBuilder().maximumSize(maximumSize).build(new CacheLoader<Path, List<Path>>() {
+      @Override
+      public List<Path> load(Path dir) throws IOException {
+        return readListing(dir);
+      }
+    });
+    this.attributes = CacheBuilder.newBuilder().maximumSize(maximumSize).build(new CacheLoader<Path, FileAttributes>() {
+      @Override
+      public FileAttributes load(Path path) throws IOException {
+        return readAttributes(path);
+      }
+    });
+  }
+
+  /**
+   * Links are followed, except broken ones whose own attributes are returned, as by {@link Files#walkFileTree}.
+   * Paths are cached as given, without being made absolute or canonical.
+   */
+  @Nullable
+  public FileAttributes attributes(Path path) {
+    try {
+      return attributes.get(path);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        return null;
+      }
+      throw Throwables.propagate(e.getCause());
+    } catch (UncheckedExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  /**
+   * Returns an empty list for files and for directories which cannot be read.
+   * Concurrent requests for the same directory wait for a single read.
+   */
+  public List<Path> list(Path dir) {
+    try {
+      return listings.get(dir);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        return ImmutableList.of();
+      }
+      throw Throwables.propagate(e.getCause());
+    } catch (UncheckedExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  private List<Path> readListing(Path dir) throws IOException {
+    ImmutableList.Builder<Path> builder = ImmutableList.builder();
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+      for (Path entry : entries) {
+        builder.add(entry);
+        try {
+          attributes.asMap().putIfAbsent(entry, readAttributes(entry));
+        } catch (IOException e) {
+          // Deleted since listed: left to be read again on demand
+        }
+      }
+    } catch (DirectoryIteratorException e) {
+      throw e.getCause();
+    }
+    return builder.build();
+  }
+
+  private static FileAttributes readAttributes(Path path) throws IOException {
+    try {
+      return new FileAttributes(Files.readAttributes(path, BasicFileAttributes.class), false);
+    } catch (IOException e) {
+      return new FileAttributes(Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS), true);
+    }
+  }
+
+  public static class FileAttributes {
+
+    private final boolean isDirectory;
+    private final boolean isRegularFile;
+    private final boolean isBrokenLink;
+    private final long size;
+    private final long lastModified;
+    @Nullable
+    private final Object fileKey;
+
+    private FileAttributes(BasicFileAttributes attrs, boolean isBrokenLink) {
+      this.isDirectory = attrs.isDirectory();
+      this.isRegularFile = attrs.isRegularFile();
+      this.isBrokenLink = isBrokenLink;
+      this.size = attrs.size();
+      this.lastModified = attrs.lastModifiedTime().toMillis();
+      this.fileKey = attrs.fileKey();
+    }
+
+    public boolean isDirectory() {
+      return isDirectory;
+    }
+
+    public boolean isFile() {
+      return isRegularFile;
+    }
+
+    public boolean isBrokenLink() {
+      return isBrokenLink;
+    }
+
+    public long size() {
+      return size;
+    }
+
+    public long lastModified() {
+      return lastModified;
+    }
+
+    @Nullable
+    Object fileKey() {
+      return fileKey;
+    }
+
+  }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Parses the dotCover "DetailedXML" report type: a single file with the same line hits as the HTML export.
+ */
+public class DotCoverDetailedXmlReportParser implements CoverageParser {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DotCoverDetailedXmlReportParser.class);
+
+  private final CanonicalPathCache canonicalPathCache;
+
+  public DotCoverDetailedXmlReportParser() {
+    this(new CanonicalPathCache());
+  }
+
+  public DotCoverDetailedXmlReportParser(CanonicalPathCache canonicalPathCache) {
+    this.canonicalPathCache = canonicalPathCache;
+  }
+
+  @Override
+  public void parse(File file, Coverage coverage) {
+    LOG.info("Parsing the dotCover DetailedXML report " + file.getAbsolutePath());
+    new Parser(file, coverage, canonicalPathCache).parse();
+  }
+
+  private static class Parser {
+
+    private final File file;
+    private XmlParserHelper xmlParserHelper;
+    private final Map<Integer, Integer> files = Maps.newHashMap();
+    private final Coverage coverage;
+    private final CanonicalPathCache canonicalPathCache;
+
+    public Parser(File file, Coverage coverage, CanonicalPathCache canonicalPathCache) {
+      this.file = file;
+      this.coverage = coverage;
+      this.canonicalPathCache = canonicalPathCache;
+    }
+
+    public void parse() {
+      try {
+        xmlParserHelper = new XmlParserHelper(file);
+        xmlParserHelper.checkRootTag("Root");
+        dispatchTags();
+      } finally {
+        if (xmlParserHelper != null) {
+          xmlParserHelper.close();
+        }
+      }
+    }
+
+    private void dispatchTags() {
+      String tagName;
+      while ((tagName = xmlParserHelper.nextTag()) != null) {
+        if ("Statement".equals(tagName)) {
+          handleStatementTag();
+        } else if ("File".equals(tagName)) {
+          handleFileTag();
+        }
+      }
+    }
+
+    private void handleFileTag() {
+      int index = xmlParserHelper.getRequiredIntAttribute("Index");
+      String name = xmlParserHelper.getRequiredAttribute("Name");
+
+      try {
+        int fileId = coverage.fileId(canonicalPathCache.canonicalPath(name));
+        if (fileId != FilePathDictionary.UNKNOWN_FILE_ID) {
+          files.put(index, fileId);
+        }
+      } catch (IOException e) {
+        LOG.debug("Skipping the import of dotCover code coverage for the invalid file path: " + name
+          + " at line " + xmlParserHelper.stream().getLocation().getLineNumber(), e);
+      }
+    }
+
+    private void handleStatementTag() {
+      int fileIndex = xmlParserHelper.getRequiredIntAttribute("FileIndex");
+      int line = xmlParserHelper.getRequiredIntAttribute("Line");
+      String covered = xmlParserHelper.getRequiredAttribute("Covered");
+
+      int hits;
+      if ("True".equals(covered)) {
+        hits = 1;
+      } else if ("False".equals(covered)) {
+        hits = 0;
+      } else {
+        throw xmlParserHelper.parseError("Unsupported \"Covered\" value \"" + covered + "\", expected one of \"True\" or \"False\"");
+      }
+
+      Integer fileId = files.get(fileIndex);
+      if (fileId != null) {
+        coverage.addHits(fileId, line, hits);
+      }
+    }
+
+  }
+
+}
@@ -22,88 +22,276 @@ package org.sonar.plugins.dotnet.tests;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
-import com.google.common.io.Files;
+import com.google.common.io.Closeables;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
 
 public class DotCoverReportParser implements CoverageParser {
 
   private static final Logger LOG = LoggerFactory.getLogger(DotCoverReportParser.class);
 
+  private final CanonicalPathCache canonicalPathCache;
+
+  public DotCoverReportParser() {
+    this(new CanonicalPathCache());
+  }
+
+  public DotCoverReportParser(CanonicalPathCache canonicalPathCache) {
+    this.canonicalPathCache = canonicalPathCache;
+  }
+
   @Override
   public void parse(File file, Coverage coverage) {
     LOG.info("Parsing the dotCover report " + file.getAbsolutePath());
-    new Parser(file, coverage).parse();
+    new Parser(file, coverage, canonicalPathCache).parse();
   }
 
+  /**
+   * Single pass over the report: reads the first &lt;title&gt;, then tokenizes the [line,col,line,col,hits] tuples
+   * of the last highlightRanges([...]) script, without ever holding the whole page in memory.
+   */
   private static class Parser {
 
-    private static final Pattern TITLE_PATTERN = Pattern.compile(".*?<title>(.*?)</title>.*", Pattern.DOTALL);
-    private static final Pattern COVERED_LINES_PATTERN_1 = Pattern.compile(
-      ".*<script type=\"text/javascript\">\\s*+highlightRanges\\(\\[(.*?)\\]\\);\\s*+</script>.*",
-      Pattern.DOTALL);
-    private static final Pattern COVERED_LINES_PATTERN_2 = Pattern.compile("\\[(\\d++),\\d++,\\d++,\\d++,(\\d++)\\]");
+    private static final char[] TITLE_START = "<title>".toCharArray();
+    private static final char[] TITLE_END = "</title>".toCharArray();
+    private static final char[] SCRIPT_START = "<script type=\"text/javascript\">".toCharArray();
+    private static final char[] HIGHLIGHT_RANGES_START = "highlightRanges([".toCharArray();
+    private static final char[] SCRIPT_END = "</script>".toCharArray();
+    private static final int TUPLE_SIZE = 5;
 
     private final File file;
     private final Coverage coverage;
+    private final CanonicalPathCache canonicalPathCache;
+    private Reader reader;
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+    private int pushedBack = -1;
+
+    private int[] lines = new int[64];
+    private int[] hits = new int[64];
+    private int size;
+    private int lastScriptSize = -1;
+    private int[] lastScriptLines = new int[0];
+    private int[] lastScriptHits = new int[0];
 
-    public Parser(File file, Coverage coverage) {
+    public Parser(File file, Coverage coverage, CanonicalPathCache canonicalPathCache) {
       this.file = file;
       this.coverage = coverage;
+      this.canonicalPathCache = canonicalPathCache;
     }
 
     public void parse() {
-      String contents;
       try {
-        contents = Files.toString(file, Charsets.UTF_8);
+        reader = new InputStreamReader(new FileInputStream(file), Charsets.UTF_8);
+
+        String fileCanonicalPath = extractFileCanonicalPath();
+        if (fileCanonicalPath != null) {
+          int fileId = coverage.fileId(fileCanonicalPath);
+          if (fileId != FilePathDictionary.UNKNOWN_FILE_ID) {
+            collectCoverage(fileId);
+          }
+        }
       } catch (IOException e) {
         throw Throwables.propagate(e);
-      }
-
-      String fileCanonicalPath = extractFileCanonicalPath(contents);
-      if (fileCanonicalPath != null) {
-        collectCoverage(fileCanonicalPath, contents);
+      } finally {
+        Closeables.closeQuietly(reader);
       }
     }
 
     @Nullable
-    private static String extractFileCanonicalPath(String contents) {
-      Matcher matcher = TITLE_PATTERN.matcher(contents);
-      checkMatches(matcher);
+    private String extractFileCanonicalPath() throws IOException {
+      Preconditions.checkArgument(skipPast(TITLE_START, null), "Missing <title> element in the dotCover report: " + file.getAbsolutePath());
+      StringBuilder title = new StringBuilder();
+      Preconditions.checkArgument(skipPast(TITLE_END, title), "Missing </title> end tag in the dotCover report: " + file.getAbsolutePath());
 
-      String lowerCaseAbsolutePath = matcher.group(1);
+      String lowerCaseAbsolutePath = title.toString();
 
       try {
-        return new File(lowerCaseAbsolutePath).getCanonicalPath();
+        return canonicalPathCache.canonicalPath(lowerCaseAbsolutePath);
       } catch (IOException e) {
         LOG.debug("Skipping the import of dotCover code coverage for the invalid file path: " + lowerCaseAbsolutePath, e);
         return null;
       }
     }
 
-    private void collectCoverage(String fileCanonicalPath, String contents) {
-      Matcher matcher = COVERED_LINES_PATTERN_1.matcher(contents);
-      checkMatches(matcher);
-      String highlightedContents = matcher.group(1);
+    private void collectCoverage(int fileId) throws IOException {
+      while (skipPast(SCRIPT_START, null)) {
+        skipWhitespaces();
+        if (expect(HIGHLIGHT_RANGES_START) && readRanges()) {
+          skipWhitespaces();
+          if (expect(SCRIPT_END)) {
+            keepAsLastScript();
+          }
+        }
+      }
+
+      Preconditions.checkArgument(lastScriptSize != -1, "Missing <script type=\"text/javascript\">highlightRanges([...]);</script> in the dotCover report: "
+        + file.getAbsolutePath());
+
+      for (int i = 0; i < lastScriptSize; i++) {
+        coverage.addHits(fileId, lastScriptLines[i], lastScriptHits[i]);
+      }
+    }
+
+    /**
+     * Reads the tuples up to the closing "]);" and buffers their line and hits.
+     * Anything between the tuples, or tuples of another shape, is skipped.
+     */
+    private boolean readRanges() throws IOException {
+      size = 0;
+      int[] tuple = new int[TUPLE_SIZE];
+      int c;
+      while ((c = read()) != -1) {
+        if (c == '[') {
+          if (readTuple(tuple)) {
+            add(tuple[0], tuple[TUPLE_SIZE - 1]);
+          }
+        } else if (c == ']') {
+          if (expect(')') && expect(';')) {
+            return true;
+          }
+        }
+      }
+
+      return false;
+    }
+
+    private boolean readTuple(int[] tuple) throws IOException {
+      for (int i = 0; i < TUPLE_SIZE; i++) {
+        int c = read();
+        if (!isDigit(c)) {
+          unread(c);
+          return false;
+        }
+
+        int value = 0;
+        while (isDigit(c)) {
+          int digit = c - '0';
+          if (value > (Integer.MAX_VALUE - digit) / 10) {
+            throw new ParseErrorException("Too large integer in the highlightRanges([...]) of the dotCover report: " + file.getAbsolutePath());
+          }
+          value = value * 10 + digit;
+          c = read();
+        }
+        tuple[i] = value;
+
+        if (c != (i == TUPLE_SIZE - 1 ? ']' : ',')) {
+          unread(c);
+          return false;
+        }
+      }
 
-      matcher = COVERED_LINES_PATTERN_2.matcher(highlightedContents);
+      return true;
+    }
 
-      while (matcher.find()) {
-        int line = Integer.parseInt(matcher.group(1));
-        int hits = Integer.parseInt(matcher.group(2));
-        coverage.addHits(fileCanonicalPath, line, hits);
+    private void add(int line, int lineHits) {
+      if (size == lines.length) {
+        lines = Arrays.copyOf(lines, size * 2);
+        hits = Arrays.copyOf(hits, size * 2);
       }
+      lines[size] = line;
+      hits[size] = lineHits;
+      size++;
+    }
+
+    private void keepAsLastScript() {
+      lastScriptLines = Arrays.copyOf(lines, size);
+      lastScriptHits = Arrays.copyOf(hits, size);
+      lastScriptSize = size;
+    }
+
+    /**
+     * Reads past the next occurrence of the given literal, appending everything before it to the given builder if any.
+     * The literals all start with a character which they do not contain again, so no partial match has to be revisited.
+     */
+    private boolean skipPast(char[] literal, @Nullable StringBuilder skipped) throws IOException {
+      int matched = 0;
+      int c;
+      while ((c = read()) != -1) {
+        if (c == literal[matched]) {
+          matched++;
+          if (matched == literal.length) {
+            return true;
+          }
+        } else {
+          if (skipped != null) {
+            skipped.append(literal, 0, matched);
+          }
+          matched = 0;
+          if (c == literal[0]) {
+            matched = 1;
+          } else if (skipped != null) {
+            skipped.append((char) c);
+          }
+        }
+      }
+
+      return false;
+    }
+
+    private boolean expect(char[] literal) throws IOException {
+      for (char expected : literal) {
+        if (!expect(expected)) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    private boolean expect(char expected) throws IOException {
+      int c = read();
+      if (c != expected) {
+        unread(c);
+        return false;
+      }
+
+      return true;
+    }
+
+    private void skipWhitespaces() throws IOException {
+      int c;
+      do {
+        c = read();
+      } while (c != -1 && Character.isWhitespace(c));
+      unread(c);
+    }
+
+    private int read() throws IOException {
+      if (pushedBack != -1) {
+        int c = pushedBack;
+        pushedBack = -1;
+        return c;
+      }
+
+      if (position == limit) {
+        limit = reader.read(buffer);
+        position = 0;
+        if (limit <= 0) {
+          limit = 0;
+          return -1;
+        }
+      }
+
+      return buffer[position++];
+    }
+
+    private void unread(int c) {
+      pushedBack = c;
     }
 
-    private static void checkMatches(Matcher matcher) {
-      Preconditions.checkArgument(matcher.matches(), "The report contents does not match the following regular expression: " + matcher.pattern().pattern());
+    private static boolean isDigit(int c) {
+      return c >= '0' && c <= '9';
     }
 
   }
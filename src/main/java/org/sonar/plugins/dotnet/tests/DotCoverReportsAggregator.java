@@ -22,18 +22,32 @@ package org.sonar.plugins.dotnet.tests;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
-import com.google.common.io.Files;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
+/**
+ * When called from a {@link java.util.concurrent.ForkJoinPool} worker, as {@link CoverageAggregator} does when a parallelism is set,
+ * the source pages are spread over that pool, each worker writing to its own {@link Coverage} shard.
+ */
 public class DotCoverReportsAggregator implements CoverageParser {
 
   private static final Logger LOG = LoggerFactory.getLogger(DotCoverReportsAggregator.class);
 
+  private static final byte[] HTML_PREFIX = "<!DOCTYPE html>".getBytes(Charsets.UTF_8);
+
   private final DotCoverReportParser parser;
 
   public DotCoverReportsAggregator(DotCoverReportParser parser) {
@@ -49,23 +63,40 @@ public class DotCoverReportsAggregator implements CoverageParser {
     File folder = new File(file.getParentFile(), folderName + "/src");
     Preconditions.checkArgument(folder.exists(), "The following report dotCover report HTML sources folder cannot be found: " + folder.getAbsolutePath());
 
+    ImmutableList.Builder<File> reportFiles = ImmutableList.builder();
     for (File reportFile : FileUtils.listFiles(folder, new String[] {"html"}, false)) {
       if (!isExcluded(reportFile)) {
+        reportFiles.add(reportFile);
+      }
+    }
+    List<File> files = reportFiles.build();
+
+    if (files.size() > 1 && ForkJoinTask.inForkJoinPool()) {
+      ConcurrentCoverage shards = new ConcurrentCoverage(coverage.dictionary(), coverage.fileFilter());
+      new ParseTask(parser, files, 0, files.size(), shards).invoke();
+      coverage.mergeWith(shards.toCoverage());
+    } else {
+      for (File reportFile : files) {
         parser.parse(reportFile, coverage);
       }
     }
   }
 
   private static void checkIsHtml(File file) {
-    String contents;
+    byte[] prefix = new byte[HTML_PREFIX.length];
+    int read;
+    InputStream inputStream = null;
     try {
-      contents = Files.toString(file, Charsets.UTF_8);
+      inputStream = new FileInputStream(file);
+      read = ByteStreams.read(inputStream, prefix, 0, prefix.length);
     } catch (IOException e) {
       throw Throwables.propagate(e);
+    } finally {
+      Closeables.closeQuietly(inputStream);
     }
-    Preconditions.checkArgument(contents.startsWith("<!DOCTYPE html>"), "Only dotCover HTML reports which start with \"<!DOCTYPE html>\" are supported.");
+    Preconditions.checkArgument(read == prefix.length && Arrays.equals(prefix, HTML_PREFIX),
+      "Only dotCover HTML reports which start with \"<!DOCTYPE html>\" are supported.");
   }
-
   private static String extractFolderName(File file) {
     String name = file.getName();
     int lastDot = name.lastIndexOf('.');
@@ -78,4 +109,42 @@ public class DotCoverReportsAggregator implements CoverageParser {
     return "nosource.html".equals(file.getName());
   }
 
+  private static class ParseTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+    private static final int PAGES_PER_TASK = 16;
+
+    private final transient DotCoverReportParser parser;
+    private final transient List<File> files;
+    private final int from;
+    private final int to;
+    private final transient ConcurrentCoverage shards;
+
+    public ParseTask(DotCoverReportParser parser, List<File> files, int from, int to, ConcurrentCoverage shards) {
+      this.parser = parser;
+      this.files = files;
+      this.from = from;
+      this.to = to;
+      this.shards = shards;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= PAGES_PER_TASK) {
+        Coverage shard = shards.acquireShard();
+        try {
+          for (int i = from; i < to; i++) {
+            parser.parse(files.get(i), shard);
+          }
+        } finally {
+          shards.releaseShard(shard);
+        }
+      } else {
+        int middle = (from + to) >>> 1;
+        invokeAll(new ParseTask(parser, files, from, middle, shards), new ParseTask(parser, files, middle, to, shards));
+      }
+    }
+
+  }
+
 }
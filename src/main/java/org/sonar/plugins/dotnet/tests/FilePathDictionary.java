@@ -0,0 +1,64 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import com.google.common.collect.Lists;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class FilePathDictionary {
+
+  public static final int UNKNOWN_FILE_ID = -1;
+
+  private final Map<String, Integer> idsByPath = new ConcurrentHashMap<>();
+  private final List<String> paths = Lists.newArrayList();
+
+  public int intern(String path) {
+    Integer id = idsByPath.get(path);
+    if (id != null) {
+      return id;
+    }
+
+    synchronized (this) {
+      id = idsByPath.get(path);
+      if (id == null) {
+        id = paths.size();
+        paths.add(path);
+        idsByPath.put(path, id);
+      }
+      return id;
+    }
+  }
+
+  public int lookup(String path) {
+    Integer id = idsByPath.get(path);
+    return id == null ? UNKNOWN_FILE_ID : id;
+  }
+
+  public synchronized String path(int id) {
+    return paths.get(id);
+  }
+
+  public synchronized int size() {
+    return paths.size();
+  }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Tells whether the file system of a directory ignores the case of file names, as the default ones of Windows and OS X do,
+ * by looking the directory up again with the case of its path swapped.
+ */
+public final class FileSystemCaseSensitivity {
+
+  private FileSystemCaseSensitivity() {
+  }
+
+  public static boolean isCaseInsensitive(File dir) {
+    Path path;
+    try {
+      path = dir.toPath().toRealPath();
+    } catch (IOException e) {
+      return isCaseInsensitiveByDefault();
+    }
+
+    String swappedCasePath = swapCase(path.toString());
+    if (swappedCasePath.equals(path.toString())) {
+      return isCaseInsensitiveByDefault();
+    }
+    try {
+      return Files.isSameFile(path, Paths.get(swappedCasePath));
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static boolean isCaseInsensitiveByDefault() {
+    String osName = System.getProperty("os.name", "").toLowerCase(Locale.ENGLISH);
+    return osName.startsWith("windows") || osName.startsWith("mac");
+  }
+
+  private static String swapCase(String value) {
+    char[] chars = value.toCharArray();
+    for (int i = 0; i < chars.length; i++) {
+      char c = chars[i];
+      chars[i] = Character.isUpperCase(c) ? Character.toLowerCase(c) : Character.toUpperCase(c);
+    }
+    return new String(chars);
+  }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+import org.sonar.api.batch.fs.FileSystem;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.InputFile.Type;
+import org.sonar.api.utils.PathUtils;
+
+public class InputFileIndex {
+
+  private final Map<String, InputFile> inputFilesByPath = Maps.newHashMap();
+  private final Map<String, InputFile> inputFilesByLowerCasePath;
+
+  public InputFileIndex(FileSystem fs, boolean caseInsensitive) {
+    inputFilesByLowerCasePath = caseInsensitive ? Maps.<String, InputFile>newHashMap() : null;
+    Set<String> ambiguousLowerCasePaths = Sets.newHashSet();
+
+    for (InputFile inputFile : fs.inputFiles(fs.predicates().hasType(Type.MAIN))) {
+      String path = PathUtils.sanitize(inputFile.absolutePath());
+      inputFilesByPath.put(path, inputFile);
+
+      if (caseInsensitive) {
+        String lowerCasePath = path.toLowerCase(Locale.ENGLISH);
+        if (inputFilesByLowerCasePath.put(lowerCasePath, inputFile) != null) {
+          ambiguousLowerCasePaths.add(lowerCasePath);
+        }
+      }
+    }
+
+    if (caseInsensitive) {
+      inputFilesByLowerCasePath.keySet().removeAll(ambiguousLowerCasePaths);
+    }
+  }
+
+  @Nullable
+  public InputFile inputFile(String absolutePath) {
+    String path = PathUtils.sanitize(absolutePath);
+    if (path == null) {
+      return null;
+    }
+
+    InputFile inputFile = inputFilesByPath.get(path);
+    if (inputFile == null && inputFilesByLowerCasePath != null) {
+      inputFile = inputFilesByLowerCasePath.get(path.toLowerCase(Locale.ENGLISH));
+    }
+    return inputFile;
+  }
+
+}
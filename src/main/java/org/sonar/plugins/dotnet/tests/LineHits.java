@@ -0,0 +1,453 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Hits of the executable lines of a single file: a bitmap of executable lines, plus their hits packed by rank
+ * into a byte, short or int array, depending on the largest hit count seen so far.
+ * Lines added in increasing order are appended to the packed hits. Once a line comes out of order, the hits are kept
+ * in an int array indexed by line until the next read, which packs them again in a single pass.
+ */
+class LineHits {
+
+  private static final int WORD_SHIFT = 6;
+  private static final int WORD_MASK = Long.SIZE - 1;
+  private static final int MINIMUM_CAPACITY = 8;
+  private static final int MAX_UNSIGNED_BYTE = 0xFF;
+  private static final int MAX_UNSIGNED_SHORT = 0xFFFF;
+  private static final int OBJECT_OVERHEAD = 48;
+  private static final int ARRAY_OVERHEAD = 16;
+
+  private long[] executableLines = new long[0];
+  private int count;
+  private int lastLine;
+
+  private byte[] byteHits = new byte[MINIMUM_CAPACITY];
+  private short[] shortHits;
+  private int[] intHits;
+  private int[] unpackedHits;
+
+  private boolean shared;
+
+  public LineHits share() {
+    compact();
+    shared = true;
+    return this;
+  }
+
+  public boolean isShared() {
+    return shared;
+  }
+
+  public LineHits copy() {
+    compact();
+    LineHits copy = new LineHits();
+    copy.executableLines = executableLines.clone();
+    copy.count = count;
+    copy.lastLine = lastLine;
+    copy.byteHits = byteHits == null ? null : byteHits.clone();
+    copy.shortHits = shortHits == null ? null : shortHits.clone();
+    copy.intHits = intHits == null ? null : intHits.clone();
+    return copy;
+  }
+
+  public void addHits(int line, int hits) {
+    int bit = line - 1;
+
+    if (unpackedHits == null) {
+      if (line > lastLine) {
+        growExecutableLines(bit);
+        setExecutable(bit);
+        append(hits);
+        lastLine = line;
+        return;
+      } else if (line == lastLine) {
+        set(count - 1, get(count - 1) + hits);
+        return;
+      }
+      unpack();
+    }
+
+    growExecutableLines(bit);
+    if (unpackedHits.length <= bit) {
+      unpackedHits = Arrays.copyOf(unpackedHits, Math.max(line, unpackedHits.length + (unpackedHits.length >> 1)));
+    }
+    if (!isExecutable(bit)) {
+      setExecutable(bit);
+      count++;
+    }
+    unpackedHits[bit] += hits;
+    lastLine = Math.max(lastLine, line);
+  }
+
+  /**
+   * Packs the hits of the lines added out of order. Reads do it on demand, but a file must be compacted
+   * before being read from several threads.
+   */
+  public void compact() {
+    if (unpackedHits == null) {
+      return;
+    }
+
+    int[] hits = new int[count];
+    int rank = 0;
+    for (int word = 0; word < executableLines.length; word++) {
+      long bits = executableLines[word];
+      while (bits != 0) {
+        hits[rank] = unpackedHits[(word << WORD_SHIFT) + Long.numberOfTrailingZeros(bits)];
+        rank++;
+        bits &= bits - 1;
+      }
+    }
+    unpackedHits = null;
+    pack(hits);
+  }
+
+  private void unpack() {
+    unpackedHits = new int[Math.max(lastLine, MINIMUM_CAPACITY)];
+    int rank = 0;
+    for (int word = 0; word < executableLines.length; word++) {
+      long bits = executableLines[word];
+      while (bits != 0) {
+        unpackedHits[(word << WORD_SHIFT) + Long.numberOfTrailingZeros(bits)] = get(rank);
+        rank++;
+        bits &= bits - 1;
+      }
+    }
+    byteHits = null;
+    shortHits = null;
+    intHits = null;
+  }
+
+  private void growExecutableLines(int bit) {
+    int words = (bit >> WORD_SHIFT) + 1;
+    if (executableLines.length < words) {
+      executableLines = Arrays.copyOf(executableLines, words);
+    }
+  }
+
+  public int size() {
+    return count;
+  }
+
+  public long estimatedMemoryUsage() {
+    compact();
+    long packedHits;
+    if (byteHits != null) {
+      packedHits = byteHits.length;
+    } else if (shortHits != null) {
+      packedHits = 2L * shortHits.length;
+    } else {
+      packedHits = 4L * intHits.length;
+    }
+    return OBJECT_OVERHEAD + 2 * ARRAY_OVERHEAD + 8L * executableLines.length + packedHits;
+  }
+
+  public void accept(LineHitsVisitor visitor) {
+    compact();
+    int rank = 0;
+    for (int word = 0; word < executableLines.length; word++) {
+      long bits = executableLines[word];
+      while (bits != 0) {
+        visitor.visitLine((word << WORD_SHIFT) + Long.numberOfTrailingZeros(bits) + 1, get(rank));
+        rank++;
+        bits &= bits - 1;
+      }
+    }
+  }
+
+  public Map<Integer, Integer> toMap() {
+    final ImmutableMap.Builder<Integer, Integer> builder = ImmutableMap.builder();
+    accept(new LineHitsVisitor() {
+      @Override
+      public void visitLine(int line, int hits) {
+        builder.put(line, hits);
+      }
+    });
+    return builder.build();
+  }
+
+  public void mergeWith(LineHits other) {
+    if (other.count == 0) {
+      return;
+    }
+    compact();
+    other.compact();
+
+    if (containsAllLinesOf(other)) {
+      addInPlace(other);
+    } else {
+      addByUnion(other);
+    }
+  }
+
+  private boolean containsAllLinesOf(LineHits other) {
+    if (other.lastLine > lastLine) {
+      return false;
+    }
+    for (int word = 0; word < other.executableLines.length; word++) {
+      if ((other.executableLines[word] & ~executableLines[word]) != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void addInPlace(LineHits other) {
+    int rank = 0;
+    int otherRank = 0;
+    for (int word = 0; word < other.executableLines.length; word++) {
+      long bits = executableLines[word];
+      long otherBits = other.executableLines[word];
+      while (bits != 0) {
+        long lowestBit = bits & -bits;
+        if ((otherBits & lowestBit) != 0) {
+          set(rank, get(rank) + other.get(otherRank));
+          otherRank++;
+        }
+        rank++;
+        bits ^= lowestBit;
+      }
+    }
+  }
+
+  private void addByUnion(LineHits other) {
+    long[] mergedLines = new long[Math.max(executableLines.length, other.executableLines.length)];
+    int mergedCount = 0;
+    for (int word = 0; word < mergedLines.length; word++) {
+      mergedLines[word] = word(word) | other.word(word);
+      mergedCount += Long.bitCount(mergedLines[word]);
+    }
+
+    int[] mergedHits = new int[mergedCount];
+    int rank = 0;
+    int thisRank = 0;
+    int otherRank = 0;
+    for (int word = 0; word < mergedLines.length; word++) {
+      long bits = mergedLines[word];
+      long thisBits = word(word);
+      long otherBits = other.word(word);
+      while (bits != 0) {
+        long lowestBit = bits & -bits;
+        int hits = 0;
+        if ((thisBits & lowestBit) != 0) {
+          hits += get(thisRank);
+          thisRank++;
+        }
+        if ((otherBits & lowestBit) != 0) {
+          hits += other.get(otherRank);
+          otherRank++;
+        }
+        mergedHits[rank] = hits;
+        rank++;
+        bits ^= lowestBit;
+      }
+    }
+
+    executableLines = mergedLines;
+    count = mergedCount;
+    lastLine = Math.max(lastLine, other.lastLine);
+    pack(mergedHits);
+  }
+
+  private long word(int word) {
+    return word < executableLines.length ? executableLines[word] : 0;
+  }
+
+  private void pack(int[] hits) {
+    int min = 0;
+    int max = 0;
+    for (int value : hits) {
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+    }
+
+    int capacity = Math.max(hits.length, MINIMUM_CAPACITY);
+    byteHits = null;
+    shortHits = null;
+    intHits = null;
+    if (min >= 0 && max <= MAX_UNSIGNED_BYTE) {
+      byteHits = new byte[capacity];
+    } else if (min >= 0 && max <= MAX_UNSIGNED_SHORT) {
+      shortHits = new short[capacity];
+    } else {
+      intHits = new int[capacity];
+    }
+
+    for (int i = 0; i < hits.length; i++) {
+      set(i, hits[i]);
+    }
+  }
+
+  public void writeTo(DataOutput out) throws IOException {
+    compact();
+    out.writeInt(executableLines.length);
+    for (long word : executableLines) {
+      out.writeLong(word);
+    }
+    out.writeInt(count);
+    out.writeInt(lastLine);
+
+    if (byteHits != null) {
+      out.writeByte(1);
+      out.write(byteHits, 0, count);
+    } else if (shortHits != null) {
+      out.writeByte(2);
+      for (int i = 0; i < count; i++) {
+        out.writeShort(shortHits[i]);
+      }
+    } else {
+      out.writeByte(4);
+      for (int i = 0; i < count; i++) {
+        out.writeInt(intHits[i]);
+      }
+    }
+  }
+
+  public static LineHits readFrom(DataInput in) throws IOException {
+    LineHits lineHits = new LineHits();
+
+    lineHits.executableLines = new long[in.readInt()];
+    int executableLinesCount = 0;
+    for (int i = 0; i < lineHits.executableLines.length; i++) {
+      lineHits.executableLines[i] = in.readLong();
+      executableLinesCount += Long.bitCount(lineHits.executableLines[i]);
+    }
+    lineHits.count = in.readInt();
+    lineHits.lastLine = in.readInt();
+    if (lineHits.count != executableLinesCount) {
+      throw new IOException("Expected " + executableLinesCount + " hits instead of " + lineHits.count);
+    }
+    if (lineHits.lastLine > lineHits.executableLines.length << WORD_SHIFT) {
+      throw new IOException("Unexpected last line " + lineHits.lastLine);
+    }
+
+    int capacity = Math.max(lineHits.count, MINIMUM_CAPACITY);
+    int width = in.readByte();
+    lineHits.byteHits = null;
+    if (width == 1) {
+      lineHits.byteHits = new byte[capacity];
+      in.readFully(lineHits.byteHits, 0, lineHits.count);
+    } else if (width == 2) {
+      lineHits.shortHits = new short[capacity];
+      for (int i = 0; i < lineHits.count; i++) {
+        lineHits.shortHits[i] = in.readShort();
+      }
+    } else if (width == 4) {
+      lineHits.intHits = new int[capacity];
+      for (int i = 0; i < lineHits.count; i++) {
+        lineHits.intHits[i] = in.readInt();
+      }
+    } else {
+      throw new IOException("Unsupported hits width: " + width);
+    }
+
+    return lineHits;
+  }
+
+  private boolean isExecutable(int bit) {
+    return (executableLines[bit >> WORD_SHIFT] & (1L << (bit & WORD_MASK))) != 0;
+  }
+
+  private void setExecutable(int bit) {
+    executableLines[bit >> WORD_SHIFT] |= 1L << (bit & WORD_MASK);
+  }
+
+  private int get(int rank) {
+    if (byteHits != null) {
+      return byteHits[rank] & MAX_UNSIGNED_BYTE;
+    } else if (shortHits != null) {
+      return shortHits[rank] & MAX_UNSIGNED_SHORT;
+    }
+    return intHits[rank];
+  }
+
+  private void set(int rank, int hits) {
+    widenFor(hits);
+    if (byteHits != null) {
+      byteHits[rank] = (byte) hits;
+    } else if (shortHits != null) {
+      shortHits[rank] = (short) hits;
+    } else {
+      intHits[rank] = hits;
+    }
+  }
+
+  private void append(int hits) {
+    widenFor(hits);
+    int capacity = capacity();
+    if (count == capacity) {
+      resize(capacity + (capacity >> 1));
+    }
+
+    count++;
+    set(count - 1, hits);
+  }
+
+  private int capacity() {
+    if (byteHits != null) {
+      return byteHits.length;
+    } else if (shortHits != null) {
+      return shortHits.length;
+    }
+    return intHits.length;
+  }
+
+  private void resize(int capacity) {
+    if (byteHits != null) {
+      byteHits = Arrays.copyOf(byteHits, capacity);
+    } else if (shortHits != null) {
+      shortHits = Arrays.copyOf(shortHits, capacity);
+    } else {
+      intHits = Arrays.copyOf(intHits, capacity);
+    }
+  }
+
+  private void widenFor(int hits) {
+    if (byteHits != null && (hits < 0 || hits > MAX_UNSIGNED_BYTE)) {
+      if (hits >= 0 && hits <= MAX_UNSIGNED_SHORT) {
+        shortHits = new short[byteHits.length];
+        for (int i = 0; i < count; i++) {
+          shortHits[i] = (short) (byteHits[i] & MAX_UNSIGNED_BYTE);
+        }
+      } else {
+        intHits = new int[byteHits.length];
+        for (int i = 0; i < count; i++) {
+          intHits[i] = byteHits[i] & MAX_UNSIGNED_BYTE;
+        }
+      }
+      byteHits = null;
+    } else if (shortHits != null && (hits < 0 || hits > MAX_UNSIGNED_SHORT)) {
+      intHits = new int[shortHits.length];
+      for (int i = 0; i < count; i++) {
+        intHits[i] = shortHits[i] & MAX_UNSIGNED_SHORT;
+      }
+      shortHits = null;
+    }
+  }
+
+}
@@ -31,22 +31,34 @@ public class NCover3ReportParser implements CoverageParser {
 
   private static final Logger LOG = LoggerFactory.getLogger(NCover3ReportParser.class);
 
+  private final CanonicalPathCache canonicalPathCache;
+
+  public NCover3ReportParser() {
+    this(new CanonicalPathCache());
+  }
+
+  public NCover3ReportParser(CanonicalPathCache canonicalPathCache) {
+    this.canonicalPathCache = canonicalPathCache;
+  }
+
   @Override
   public void parse(File file, Coverage coverage) {
     LOG.info("Parsing the NCover3 report " + file.getAbsolutePath());
-    new Parser(file, coverage).parse();
+    new Parser(file, coverage, canonicalPathCache).parse();
   }
 
   private static class Parser {
 
     private final File file;
     private XmlParserHelper xmlParserHelper;
-    private final Map<String, String> documents = Maps.newHashMap();
+    private final Map<String, Integer> documents = Maps.newHashMap();
     private final Coverage coverage;
+    private final CanonicalPathCache canonicalPathCache;
 
-    public Parser(File file, Coverage coverage) {
+    public Parser(File file, Coverage coverage, CanonicalPathCache canonicalPathCache) {
       this.file = file;
       this.coverage = coverage;
+      this.canonicalPathCache = canonicalPathCache;
     }
 
     public void parse() {
@@ -78,7 +90,10 @@ public class NCover3ReportParser implements CoverageParser {
 
       if (!isExcludedId(id)) {
         try {
-          documents.put(id, new File(url).getCanonicalPath());
+          int fileId = coverage.fileId(canonicalPathCache.canonicalPath(url));
+          if (fileId != FilePathDictionary.UNKNOWN_FILE_ID) {
+            documents.put(id, fileId);
+          }
         } catch (IOException e) {
           LOG.debug("Skipping the import of NCover3 code coverage for the invalid file path: " + url
             + " at line " + xmlParserHelper.stream().getLocation().getLineNumber(), e);
@@ -95,8 +110,9 @@ public class NCover3ReportParser implements CoverageParser {
       int line = xmlParserHelper.getRequiredIntAttribute("l");
       int vc = xmlParserHelper.getRequiredIntAttribute("vc");
 
-      if (documents.containsKey(doc) && !isExcludedLine(line)) {
-        coverage.addHits(documents.get(doc), line, vc);
+      Integer fileId = documents.get(doc);
+      if (fileId != null && !isExcludedLine(line)) {
+        coverage.addHits(fileId, line, vc);
       }
     }
 
@@ -31,23 +31,35 @@ public class OpenCoverReportParser implements CoverageParser {
 
   private static final Logger LOG = LoggerFactory.getLogger(OpenCoverReportParser.class);
 
+  private final CanonicalPathCache canonicalPathCache;
+
+  public OpenCoverReportParser() {
+    this(new CanonicalPathCache());
+  }
+
+  public OpenCoverReportParser(CanonicalPathCache canonicalPathCache) {
+    this.canonicalPathCache = canonicalPathCache;
+  }
+
   @Override
   public void parse(File file, Coverage coverage) {
     LOG.info("Parsing the OpenCover report " + file.getAbsolutePath());
-    new Parser(file, coverage).parse();
+    new Parser(file, coverage, canonicalPathCache).parse();
   }
 
   private static class Parser {
 
     private final File file;
     private XmlParserHelper xmlParserHelper;
-    private final Map<String, String> files = Maps.newHashMap();
+    private final Map<String, Integer> files = Maps.newHashMap();
     private final Coverage coverage;
+    private final CanonicalPathCache canonicalPathCache;
     private String fileRef;
 
-    public Parser(File file, Coverage coverage) {
+    public Parser(File file, Coverage coverage, CanonicalPathCache canonicalPathCache) {
       this.file = file;
       this.coverage = coverage;
+      this.canonicalPathCache = canonicalPathCache;
     }
 
     public void parse() {
@@ -84,7 +96,10 @@ public class OpenCoverReportParser implements CoverageParser {
       String fullPath = xmlParserHelper.getRequiredAttribute("fullPath");
 
       try {
-        files.put(uid, new File(fullPath).getCanonicalPath());
+        int fileId = coverage.fileId(canonicalPathCache.canonicalPath(fullPath));
+        if (fileId != FilePathDictionary.UNKNOWN_FILE_ID) {
+          files.put(uid, fileId);
+        }
       } catch (IOException e) {
         LOG.debug("Skipping the import of OpenCover code coverage for the invalid file path: " + fullPath
           + " at line " + xmlParserHelper.stream().getLocation().getLineNumber(), e);
@@ -95,8 +110,9 @@ public class OpenCoverReportParser implements CoverageParser {
       int line = xmlParserHelper.getRequiredIntAttribute("sl");
       int vc = xmlParserHelper.getRequiredIntAttribute("vc");
 
-      if (files.containsKey(fileRef)) {
-        coverage.addHits(files.get(fileRef), line, vc);
+      Integer fileId = files.get(fileRef);
+      if (fileId != null) {
+        coverage.addHits(fileId, line, vc);
       }
     }
 
@@ -0,0 +1,211 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parsed reports persisted across analyses, one entry per report and parser.
+ * An entry is reused while the report keeps its size and either its last modification time or, failing that, its content hash:
+ * reports are only hashed when they were touched since they were parsed.
+ * Entries which have not been used for a while are deleted.
+ */
+public class PersistentCoverageCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PersistentCoverageCache.class);
+
+  private static final int MAGIC = 0x434F5652;
+  private static final int VERSION = 2;
+  private static final int CHECKSUM_LENGTH = 8;
+  private static final String EXTENSION = ".coverage";
+  private static final String TMP_EXTENSION = ".tmp";
+  private static final long DEFAULT_MAX_UNUSED_AGE = TimeUnit.DAYS.toMillis(30);
+  private static final long MAX_TMP_AGE = TimeUnit.HOURS.toMillis(1);
+
+  private final File directory;
+
+  public PersistentCoverageCache(File directory) {
+    this(directory, DEFAULT_MAX_UNUSED_AGE);
+  }
+
+  @VisibleForTesting
+  PersistentCoverageCache(File directory, long maxUnusedAge) {
+    this.directory = directory;
+    prune(System.currentTimeMillis(), maxUnusedAge);
+  }
+
+  File directory() {
+    return directory;
+  }
+
+  @Nullable
+  public Coverage read(ReportFingerprint fingerprint, String parserKey, FilePathDictionary dictionary) {
+    return read(fingerprint, parserKey, dictionary, Predicates.<String>alwaysTrue());
+  }
+
+  /**
+   * The file filter is the one the coverage was written with, which the entry key given by the caller accounts for.
+   */
+  @Nullable
+  public Coverage read(ReportFingerprint fingerprint, String parserKey, FilePathDictionary dictionary, Predicate<String> fileFilter) {
+    File file = entryFile(fingerprint, parserKey);
+    if (!file.isFile()) {
+      return null;
+    }
+
+    Coverage coverage;
+    boolean touched;
+    try {
+      byte[] bytes = Files.toByteArray(file);
+      if (bytes.length < CHECKSUM_LENGTH || checksum(bytes, bytes.length - CHECKSUM_LENGTH) != readChecksum(bytes)) {
+        throw new IOException("Checksum mismatch");
+      }
+
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - CHECKSUM_LENGTH));
+      if (in.readInt() != MAGIC || in.readInt() != VERSION || !entryKey(fingerprint, parserKey).equals(in.readUTF())) {
+        LOG.debug("Ignoring the persisted code coverage of another version or report: " + file.getAbsolutePath());
+        return null;
+      }
+
+      long size = in.readLong();
+      long lastModified = in.readLong();
+      String contentHash = in.readUTF();
+      touched = lastModified != fingerprint.lastModified();
+      if (size != fingerprint.size() || (touched && !contentHash.equals(fingerprint.contentHash()))) {
+        LOG.debug("Ignoring the persisted code coverage of a previous version of the report: " + fingerprint.path());
+        return null;
+      }
+
+      coverage = Coverage.readFrom(in, dictionary, fileFilter);
+      if (in.available() != 0) {
+        throw new IOException("Unexpected trailing data");
+      }
+    } catch (IOException e) {
+      LOG.debug("Deleting the corrupted persisted code coverage: " + file.getAbsolutePath(), e);
+      delete(file);
+      return null;
+    }
+
+    if (touched) {
+      write(fingerprint, parserKey, coverage);
+    } else if (!file.setLastModified(System.currentTimeMillis())) {
+      LOG.debug("Unable to mark the persisted code coverage as used: " + file.getAbsolutePath());
+    }
+    return coverage;
+  }
+
+  public void write(ReportFingerprint fingerprint, String parserKey, Coverage coverage) {
+    File file = entryFile(fingerprint, parserKey);
+    File tmpFile = null;
+
+    DataOutputStream out = null;
+    try {
+      Files.createParentDirs(file);
+      tmpFile = File.createTempFile(file.getName() + TMP_EXTENSION, "", directory);
+      CheckedOutputStream checkedOut = new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)), new CRC32());
+      out = new DataOutputStream(checkedOut);
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(entryKey(fingerprint, parserKey));
+      out.writeLong(fingerprint.size());
+      out.writeLong(fingerprint.lastModified());
+      out.writeUTF(fingerprint.contentHash());
+      coverage.writeTo(out);
+      out.flush();
+      out.writeLong(checkedOut.getChecksum().getValue());
+      out.close();
+      out = null;
+
+      java.nio.file.Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      LOG.warn("Unable to persist the code coverage of " + fingerprint.path() + " to " + file.getAbsolutePath(), e);
+      Closeables.closeQuietly(out);
+      if (tmpFile != null && tmpFile.exists()) {
+        delete(tmpFile);
+      }
+    }
+  }
+
+  /**
+   * Deletes the entries which have not been read nor written for the given time, as well as the leftovers of interrupted writes.
+   */
+  private void prune(long now, long maxUnusedAge) {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+
+    for (File file : files) {
+      String name = file.getName();
+      long age = now - file.lastModified();
+      if ((name.endsWith(EXTENSION) && age > maxUnusedAge) || (name.contains(EXTENSION + TMP_EXTENSION) && age > MAX_TMP_AGE)) {
+        LOG.debug("Deleting the unused persisted code coverage: " + file.getAbsolutePath());
+        delete(file);
+      }
+    }
+  }
+
+  private static void delete(File file) {
+    if (!file.delete()) {
+      LOG.debug("Unable to delete: " + file.getAbsolutePath());
+    }
+  }
+
+  private File entryFile(ReportFingerprint fingerprint, String parserKey) {
+    return new File(directory, ReportFingerprint.md5Hex(entryKey(fingerprint, parserKey)) + EXTENSION);
+  }
+
+  private static String entryKey(ReportFingerprint fingerprint, String parserKey) {
+    return parserKey + "|" + fingerprint.path();
+  }
+
+  private static long checksum(byte[] bytes, int length) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, length);
+    return crc.getValue();
+  }
+
+  private static long readChecksum(byte[] bytes) {
+    long checksum = 0;
+    for (int i = bytes.length - CHECKSUM_LENGTH; i < bytes.length; i++) {
+      checksum = (checksum << 8) | (bytes[i] & 0xFF);
+    }
+    return checksum;
+  }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import javax.annotation.Nullable;
+
+/**
+ * The size and last modification time of a report are read upfront, while its content hash is only computed when first needed.
+ */
+public class ReportFingerprint {
+
+  private final String path;
+  private final long size;
+  private final long lastModified;
+  @Nullable
+  private final File file;
+  private String contentHash;
+
+  public ReportFingerprint(String path, long size, long lastModified, String contentHash) {
+    this.path = path;
+    this.size = size;
+    this.lastModified = lastModified;
+    this.file = null;
+    this.contentHash = contentHash;
+  }
+
+  private ReportFingerprint(File file) {
+    this.path = realPath(file);
+    this.size = file.length();
+    this.lastModified = file.lastModified();
+    this.file = file;
+  }
+
+  public static ReportFingerprint of(File file) {
+    return new ReportFingerprint(file);
+  }
+
+  public static String realPath(File file) {
+    try {
+      return file.toPath().toRealPath().toString();
+    } catch (IOException e) {
+      return file.getAbsolutePath();
+    }
+  }
+
+  public static String contentHash(File file) {
+    try {
+      return toHex(Files.getDigest(file, md5()));
+    } catch (IOException e) {
+      throw Throwables.propagate(e);
+    }
+  }
+
+  public static String md5Hex(String value) {
+    return toHex(md5().digest(value.getBytes(Charsets.UTF_8)));
+  }
+
+  private static MessageDigest md5() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw Throwables.propagate(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    return String.format("%032x", new BigInteger(1, bytes));
+  }
+
+  public String path() {
+    return path;
+  }
+
+  public long size() {
+    return size;
+  }
+
+  public long lastModified() {
+    return lastModified;
+  }
+
+  public String contentHash() {
+    if (contentHash == null) {
+      contentHash = contentHash(file);
+    }
+    return contentHash;
+  }
+
+  public String key() {
+    return path + "|" + size + "|" + lastModified + "|" + contentHash();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof ReportFingerprint)) {
+      return false;
+    }
+    return key().equals(((ReportFingerprint) obj).key());
+  }
+
+  @Override
+  public int hashCode() {
+    return key().hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return key();
+  }
+
+}
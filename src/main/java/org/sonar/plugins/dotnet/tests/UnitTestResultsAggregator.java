@@ -21,7 +21,13 @@ package org.sonar.plugins.dotnet.tests;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Splitter;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
 import java.io.File;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
 import org.sonar.api.BatchExtension;
 import org.sonar.api.config.Settings;
 
@@ -66,26 +72,38 @@ public class UnitTestResultsAggregator implements BatchExtension {
   }
 
   public UnitTestResults aggregate(WildcardPatternFileProvider wildcardPatternFileProvider, UnitTestResults unitTestResults) {
+    Multimap<String, UnitTestResultsParser> parsersByPattern = LinkedHashMultimap.create();
+
     if (hasVisualStudioTestResultsFile()) {
-      aggregate(wildcardPatternFileProvider, settings.getString(unitTestConf.visualStudioTestResultsFilePropertyKey()), visualStudioTestResultsFileParser, unitTestResults);
+      addPatterns(settings.getString(unitTestConf.visualStudioTestResultsFilePropertyKey()), visualStudioTestResultsFileParser, parsersByPattern);
     }
 
     if (hasNUnitTestResultsFile()) {
-      aggregate(wildcardPatternFileProvider, settings.getString(unitTestConf.nunitTestResultsFilePropertyKey()), nunitTestResultsFileParser, unitTestResults);
+      addPatterns(settings.getString(unitTestConf.nunitTestResultsFilePropertyKey()), nunitTestResultsFileParser, parsersByPattern);
     }
 
     if (hasXUnitTestResultsFile()) {
-      aggregate(wildcardPatternFileProvider, settings.getString(unitTestConf.xunitTestResultsFilePropertyKey()), xunitTestResultsFileParser, unitTestResults);
+      addPatterns(settings.getString(unitTestConf.xunitTestResultsFilePropertyKey()), xunitTestResultsFileParser, parsersByPattern);
+    }
+
+    if (!parsersByPattern.isEmpty()) {
+      for (Map.Entry<File, Collection<String>> entry : wildcardPatternFileProvider.matchFiles(parsersByPattern.keySet()).asMap().entrySet()) {
+        Set<UnitTestResultsParser> parsers = Sets.newLinkedHashSet();
+        for (String pattern : entry.getValue()) {
+          parsers.addAll(parsersByPattern.get(pattern));
+        }
+        for (UnitTestResultsParser parser : parsers) {
+          parser.parse(entry.getKey(), unitTestResults);
+        }
+      }
     }
 
     return unitTestResults;
   }
 
-  private static void aggregate(WildcardPatternFileProvider wildcardPatternFileProvider, String reportPaths, UnitTestResultsParser parser, UnitTestResults unitTestResults) {
+  private static void addPatterns(String reportPaths, UnitTestResultsParser parser, Multimap<String, UnitTestResultsParser> parsersByPattern) {
     for (String reportPathPattern : Splitter.on(',').trimResults().omitEmptyStrings().split(reportPaths)) {
-      for (File reportFile : wildcardPatternFileProvider.listFiles(reportPathPattern)) {
-        parser.parse(reportFile, unitTestResults);
-      }
+      parsersByPattern.put(reportPathPattern, parser);
     }
   }
 
@@ -29,10 +29,15 @@ import java.io.File;
 
 public class UnitTestResultsImportSensor implements Sensor {
 
-  private final WildcardPatternFileProvider wildcardPatternFileProvider = new WildcardPatternFileProvider(new File("."), File.separator);
+  private final WildcardPatternFileProvider wildcardPatternFileProvider;
   private final UnitTestResultsAggregator unitTestResultsAggregator;
 
   public UnitTestResultsImportSensor(UnitTestResultsAggregator unitTestResultsAggregator) {
+    this(unitTestResultsAggregator, new DirectoryListingCache());
+  }
+
+  public UnitTestResultsImportSensor(UnitTestResultsAggregator unitTestResultsAggregator, DirectoryListingCache directoryListingCache) {
+    this.wildcardPatternFileProvider = new WildcardPatternFileProvider(new File("."), File.separator, directoryListingCache);
     this.unitTestResultsAggregator = unitTestResultsAggregator;
   }
 
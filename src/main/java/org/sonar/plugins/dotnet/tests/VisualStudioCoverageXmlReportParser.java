@@ -31,10 +31,20 @@ public class VisualStudioCoverageXmlReportParser implements CoverageParser {
 
   private static final Logger LOG = LoggerFactory.getLogger(VisualStudioCoverageXmlReportParser.class);
 
+  private final CanonicalPathCache canonicalPathCache;
+
+  public VisualStudioCoverageXmlReportParser() {
+    this(new CanonicalPathCache());
+  }
+
+  public VisualStudioCoverageXmlReportParser(CanonicalPathCache canonicalPathCache) {
+    this.canonicalPathCache = canonicalPathCache;
+  }
+
   @Override
   public void parse(File file, Coverage coverage) {
     LOG.info("Parsing the Visual Studio coverage XML report " + file.getAbsolutePath());
-    new Parser(file, coverage).parse();
+    new Parser(file, coverage, canonicalPathCache).parse();
   }
 
   private static class Parser {
@@ -44,10 +54,12 @@ public class VisualStudioCoverageXmlReportParser implements CoverageParser {
     private final Multimap<Integer, Integer> coveredLines = HashMultimap.create();
     private final Multimap<Integer, Integer> uncoveredLines = HashMultimap.create();
     private final Coverage coverage;
+    private final CanonicalPathCache canonicalPathCache;
 
-    public Parser(File file, Coverage coverage) {
+    public Parser(File file, Coverage coverage, CanonicalPathCache canonicalPathCache) {
       this.file = file;
       this.coverage = coverage;
+      this.canonicalPathCache = canonicalPathCache;
     }
 
     public void parse() {
@@ -99,21 +111,24 @@ public class VisualStudioCoverageXmlReportParser implements CoverageParser {
       int id = xmlParserHelper.getRequiredIntAttribute("id");
       String path = xmlParserHelper.getRequiredAttribute("path");
 
-      String canonicalPath;
+      int fileId;
       try {
-        canonicalPath = new File(path).getCanonicalPath();
+        fileId = coverage.fileId(canonicalPathCache.canonicalPath(path));
       } catch (IOException e) {
         LOG.debug("Skipping the import of Visual Studio XML code coverage for the invalid file path: " + path
           + " at line " + xmlParserHelper.stream().getLocation().getLineNumber(), e);
         return;
       }
+      if (fileId == FilePathDictionary.UNKNOWN_FILE_ID) {
+        return;
+      }
 
       for (Integer line : coveredLines.get(id)) {
-        coverage.addHits(canonicalPath, line, 1);
+        coverage.addHits(fileId, line, 1);
       }
 
       for (Integer line : uncoveredLines.get(id)) {
-        coverage.addHits(canonicalPath, line, 0);
+        coverage.addHits(fileId, line, 0);
       }
     }
 
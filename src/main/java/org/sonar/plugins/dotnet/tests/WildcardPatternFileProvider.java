@@ -19,15 +19,36 @@
  */
 package org.sonar.plugins.dotnet.tests;
 
+import com.google.common.base.CharMatcher;
 import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.SetMultimap;
 import org.sonar.api.utils.WildcardPattern;
+import org.sonar.plugins.dotnet.tests.DirectoryListingCache.FileAttributes;
 
+import javax.annotation.Nullable;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class WildcardPatternFileProvider {
 
@@ -38,43 +59,110 @@ public class WildcardPatternFileProvider {
   public static final String ZERO_OR_MORE_PATTERN = "*";
   public static final String ANY_PATTERN = "?";
 
+  private static final boolean CASE_INSENSITIVE_FILE_SYSTEM = new File("a").equals(new File("A"));
+
+  /**
+   * {@link WildcardPattern} accepts both separators, whatever the one given: an element still containing one spans several directories.
+   */
+  private static final CharMatcher DIRECTORY_SEPARATORS = CharMatcher.anyOf("/\\");
+
   private final File baseDir;
   private final String directorySeparator;
+  private final DirectoryListingCache directoryListingCache;
 
   public WildcardPatternFileProvider(File baseDir, String directorySeparator) {
+    this(baseDir, directorySeparator, new DirectoryListingCache());
+  }
+
+  public WildcardPatternFileProvider(File baseDir, String directorySeparator, DirectoryListingCache directoryListingCache) {
     this.baseDir = baseDir;
     this.directorySeparator = directorySeparator;
+    this.directoryListingCache = directoryListingCache;
   }
 
   public Set<File> listFiles(String pattern) {
-    List<String> elements = ImmutableList.copyOf(Splitter.on(directorySeparator).split(pattern));
+    return matchFiles(ImmutableList.of(pattern)).keySet();
+  }
 
-    List<String> elementsTillFirstWildcard = elementsTillFirstWildcard(elements);
-    String pathTillFirstWildcardElement = toPath(elementsTillFirstWildcard);
-    File fileTillFirstWildcardElement = new File(pathTillFirstWildcardElement);
+  /**
+   * Lists the files matching any of the given patterns, mapped to all the patterns they match.
+   * Patterns whose first wildcard is below the same directory are matched together in a single walk.
+   */
+  public SetMultimap<File, String> matchFiles(Collection<String> patterns) {
+    return matchFiles(patterns, 1);
+  }
 
-    File absoluteFileTillFirstWildcardElement = fileTillFirstWildcardElement.isAbsolute() ? fileTillFirstWildcardElement : new File(baseDir, pathTillFirstWildcardElement);
+  /**
+   * Walks the trees of recursive ("**") patterns with the given number of threads, forking one task per subdirectory.
+   * The result is the same as with a sequential walk.
+   */
+  public SetMultimap<File, String> matchFiles(Collection<String> patterns, int parallelism) {
+    Preconditions.checkArgument(parallelism > 0, "The parallelism must be a positive number of threads, got: " + parallelism);
+    ImmutableSetMultimap.Builder<File, String> builder = ImmutableSetMultimap.builder();
+    List<CompiledPattern> wildcardPatterns = Lists.newArrayList();
 
-    List<String> wildcardElements = elements.subList(elementsTillFirstWildcard.size(), elements.size());
-    if (wildcardElements.isEmpty()) {
-      return absoluteFileTillFirstWildcardElement.exists() ? ImmutableSet.of(absoluteFileTillFirstWildcardElement) : ImmutableSet.<File>of();
-    }
-    checkNoCurrentOrParentFolderAccess(wildcardElements);
+    for (String pattern : patterns) {
+      List<String> elements = ImmutableList.copyOf(Splitter.on(directorySeparator).split(pattern));
 
-    WildcardPattern wildcardPattern = WildcardPattern.create(toPath(wildcardElements), directorySeparator);
+      List<String> elementsTillFirstWildcard = elementsTillFirstWildcard(elements);
+      String pathTillFirstWildcardElement = toPath(elementsTillFirstWildcard);
+      File fileTillFirstWildcardElement = new File(pathTillFirstWildcardElement);
 
-    ImmutableSet.Builder<File> builder = ImmutableSet.builder();
-    for (File file : listFiles(absoluteFileTillFirstWildcardElement)) {
-      String relativePath = relativize(absoluteFileTillFirstWildcardElement, file);
+      File absoluteFileTillFirstWildcardElement = fileTillFirstWildcardElement.isAbsolute() ? fileTillFirstWildcardElement : new File(baseDir, pathTillFirstWildcardElement);
 
-      if (wildcardPattern.match(relativePath)) {
-        builder.add(file);
+      List<String> wildcardElements = elements.subList(elementsTillFirstWildcard.size(), elements.size());
+      if (wildcardElements.isEmpty()) {
+        FileAttributes attributes = attributes(absoluteFileTillFirstWildcardElement);
+        if (attributes != null && !attributes.isBrokenLink()) {
+          builder.put(absoluteFileTillFirstWildcardElement, pattern);
+        }
+        continue;
+      }
+      checkNoCurrentOrParentFolderAccess(wildcardElements);
+
+      Path start;
+      try {
+        start = absoluteFileTillFirstWildcardElement.toPath();
+      } catch (InvalidPathException e) {
+        continue;
+      }
+      wildcardPatterns.add(new CompiledPattern(pattern, start, wildcardElements, WildcardPattern.create(toPath(wildcardElements), directorySeparator)));
+    }
+
+    ForkJoinPool pool = null;
+    try {
+      for (Map.Entry<Path, Collection<PatternMatcher>> walkRoot : patternsByWalkRoot(wildcardPatterns).asMap().entrySet()) {
+        Walk walk = new Walk(directoryListingCache, new PatternMatchers(walkRoot.getValue()));
+        if (parallelism > 1 && walk.patternMatchers.isRecursive()) {
+          if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+          }
+          builder.putAll(walk.walkInParallel(pool, walkRoot.getKey()));
+        } else {
+          builder.putAll(walk.walk(walkRoot.getKey()));
+        }
+      }
+    } finally {
+      if (pool != null) {
+        pool.shutdown();
       }
     }
 
     return builder.build();
   }
 
+  /**
+   * The attributes are read from the directory listing cache: the size and last modification time can serve as cheap fingerprints.
+   */
+  @Nullable
+  public FileAttributes attributes(File file) {
+    try {
+      return directoryListingCache.attributes(file.toPath());
+    } catch (InvalidPathException e) {
+      return null;
+    }
+  }
+
   private String toPath(List<String> elements) {
     return Joiner.on(directorySeparator).join(elements);
   }
@@ -109,27 +197,394 @@ public class WildcardPatternFileProvider {
       PARENT_FOLDER.equals(element);
   }
 
-  private static Set<File> listFiles(File dir) {
-    ImmutableSet.Builder<File> builder = ImmutableSet.builder();
-    listFiles(builder, dir);
-    return builder.build();
+  private static Multimap<Path, PatternMatcher> patternsByWalkRoot(List<CompiledPattern> patterns) {
+    List<CompiledPattern> sortedPatterns = Lists.newArrayList(patterns);
+    Collections.sort(sortedPatterns, new Comparator<CompiledPattern>() {
+      @Override
+      public int compare(CompiledPattern left, CompiledPattern right) {
+        return Integer.compare(depth(left.normalizedStart), depth(right.normalizedStart));
+      }
+    });
+
+    Multimap<Path, PatternMatcher> patternsByWalkRoot = ArrayListMultimap.create();
+    List<CompiledPattern> roots = Lists.newArrayList();
+    for (CompiledPattern pattern : sortedPatterns) {
+      CompiledPattern root = null;
+      if (pattern.normalizedStart != null) {
+        for (CompiledPattern candidate : roots) {
+          if (candidate.normalizedStart != null && pattern.normalizedStart.startsWith(candidate.normalizedStart)) {
+            root = candidate;
+            break;
+          }
+        }
+      }
+
+      if (root == null) {
+        roots.add(pattern);
+        patternsByWalkRoot.put(pattern.start, new PatternMatcher(pattern, ImmutableList.<String>of()));
+      } else {
+        ImmutableList.Builder<String> literalElements = ImmutableList.builder();
+        if (!pattern.normalizedStart.equals(root.normalizedStart)) {
+          for (Path name : root.normalizedStart.relativize(pattern.normalizedStart)) {
+            literalElements.add(name.toString());
+          }
+        }
+        patternsByWalkRoot.put(root.start, new PatternMatcher(pattern, literalElements.build()));
+      }
+    }
+    return patternsByWalkRoot;
+  }
+
+  private static int depth(@Nullable Path path) {
+    return path == null ? Integer.MAX_VALUE : path.getNameCount();
+  }
+
+  @Nullable
+  private static Object fileKey(Path dir, FileAttributes attributes) {
+    if (attributes.fileKey() != null) {
+      return attributes.fileKey();
+    }
+    try {
+      return dir.toRealPath();
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static class CompiledPattern {
+
+    private final String pattern;
+    private final Path start;
+    @Nullable
+    private final Path normalizedStart;
+    private final List<String> wildcardElements;
+    private final WildcardPattern wildcardPattern;
+
+    public CompiledPattern(String pattern, Path start, List<String> wildcardElements, WildcardPattern wildcardPattern) {
+      this.pattern = pattern;
+      this.start = start;
+      this.normalizedStart = normalize(start);
+      this.wildcardElements = wildcardElements;
+      this.wildcardPattern = wildcardPattern;
+    }
+
+    /**
+     * Only "." elements are removed, as resolving ".." lexically would be wrong in the presence of symbolic links.
+     */
+    @Nullable
+    private static Path normalize(Path path) {
+      Path absolutePath = path.toAbsolutePath();
+      Path normalizedPath = absolutePath.getRoot();
+      for (Path name : absolutePath) {
+        String element = name.toString();
+        if (PARENT_FOLDER.equals(element)) {
+          return null;
+        } else if (!CURRENT_FOLDER.equals(element)) {
+          normalizedPath = normalizedPath == null ? name : normalizedPath.resolve(name);
+        }
+      }
+      return normalizedPath;
+    }
+
+  }
+
+  /**
+   * Matches a pattern during the walk of one of its ancestor directories, the directories in between being literal elements.
+   * For each visited directory, it tracks which elements can still be matched by its descendants, in order to prune the walk.
+   * The final decision is always left to the {@link WildcardPattern} of the whole pattern.
+   */
+  private static class PatternMatcher {
+
+    private final String pattern;
+    private final String literalPath;
+    private final WildcardPattern wildcardPattern;
+    private final int size;
+    private final String[] literals;
+    private final boolean[] recursive;
+    private final WildcardPattern[] elementPatterns;
+    private final boolean prunable;
+
+    public PatternMatcher(CompiledPattern pattern, List<String> literalElements) {
+      this.pattern = pattern.pattern;
+      this.literalPath = Joiner.on(File.separator).join(literalElements);
+      this.wildcardPattern = pattern.wildcardPattern;
+
+      int literalCount = literalElements.size();
+      size = literalCount + pattern.wildcardElements.size();
+      literals = new String[size];
+      recursive = new boolean[size];
+      elementPatterns = new WildcardPattern[size];
+
+      boolean canPrune = true;
+      for (int i = 0; i < size; i++) {
+        if (i < literalCount) {
+          literals[i] = literalElements.get(i);
+        } else {
+          String element = pattern.wildcardElements.get(i - literalCount);
+          recursive[i] = RECURSIVE_PATTERN.equals(element);
+          if (!recursive[i]) {
+            canPrune &= !element.isEmpty() && !element.contains(RECURSIVE_PATTERN) && DIRECTORY_SEPARATORS.matchesNoneOf(element);
+            elementPatterns[i] = WildcardPattern.create(element, File.separator);
+          }
+        }
+      }
+      prunable = canPrune;
+    }
+
+    public boolean isRecursive() {
+      for (boolean recursiveElement : recursive) {
+        if (recursiveElement) {
+          return true;
+        }
+      }
+      return !prunable;
+    }
+
+    public boolean matches(String relativePath) {
+      if (literalPath.isEmpty()) {
+        return wildcardPattern.match(relativePath);
+      }
+
+      int literalPathLength = literalPath.length();
+      return relativePath.length() > literalPathLength + 1 &&
+        relativePath.regionMatches(CASE_INSENSITIVE_FILE_SYSTEM, 0, literalPath, 0, literalPathLength) &&
+        relativePath.startsWith(File.separator, literalPathLength) &&
+        wildcardPattern.match(relativePath.substring(literalPathLength + 1));
+    }
+
+    public BitSet initialState() {
+      BitSet state = new BitSet(size + 1);
+      state.set(0);
+      return closure(state);
+    }
+
+    public BitSet next(BitSet state, String name) {
+      BitSet next = new BitSet(size + 1);
+      for (int i = state.nextSetBit(0); i >= 0 && i < size; i = state.nextSetBit(i + 1)) {
+        if (recursive[i]) {
+          next.set(i);
+        } else if (literals[i] != null ? matchesLiteral(literals[i], name) : elementPatterns[i].match(name)) {
+          next.set(i + 1);
+        }
+      }
+      return closure(next);
+    }
+
+    public boolean canMatchBelow(BitSet state) {
+      if (!prunable) {
+        return true;
+      }
+      int first = state.nextSetBit(0);
+      return first >= 0 && first < size;
+    }
+
+    private BitSet closure(BitSet state) {
+      for (int i = state.nextSetBit(0); i >= 0 && i < size; i = state.nextSetBit(i + 1)) {
+        if (recursive[i]) {
+          state.set(i + 1);
+        }
+      }
+      return state;
+    }
+
+    private static boolean matchesLiteral(String literal, String name) {
+      return CASE_INSENSITIVE_FILE_SYSTEM ? literal.equalsIgnoreCase(name) : literal.equals(name);
+    }
+
   }
 
-  private static void listFiles(ImmutableSet.Builder<File> builder, File dir) {
-    File[] files = dir.listFiles();
-    if (files != null) {
-      builder.add(files);
+  private static class PatternMatchers {
+
+    private final List<PatternMatcher> patternMatchers;
+
+    public PatternMatchers(Collection<PatternMatcher> patternMatchers) {
+      this.patternMatchers = ImmutableList.copyOf(patternMatchers);
+    }
+
+    public boolean isRecursive() {
+      for (PatternMatcher patternMatcher : patternMatchers) {
+        if (patternMatcher.isRecursive()) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    public BitSet[] initialStates() {
+      BitSet[] initialStates = new BitSet[patternMatchers.size()];
+      for (int i = 0; i < initialStates.length; i++) {
+        initialStates[i] = patternMatchers.get(i).initialState();
+      }
+      return initialStates;
+    }
 
-      for (File file : files) {
-        if (file.isDirectory()) {
-          listFiles(builder, file);
+    /**
+     * Returns null when none of the patterns can match below the directory, which must then be pruned.
+     */
+    @Nullable
+    public BitSet[] nextStates(BitSet[] parentStates, String name) {
+      BitSet[] nextStates = new BitSet[parentStates.length];
+      boolean canMatchBelow = false;
+      for (int i = 0; i < parentStates.length; i++) {
+        if (parentStates[i] != null) {
+          PatternMatcher patternMatcher = patternMatchers.get(i);
+          BitSet state = patternMatcher.next(parentStates[i], name);
+          if (patternMatcher.canMatchBelow(state)) {
+            nextStates[i] = state;
+            canMatchBelow = true;
+          }
         }
       }
+      return canMatchBelow ? nextStates : null;
     }
+
+    public void match(Path path, String relativePath, BitSet[] parentStates, Multimap<File, String> matches) {
+      File file = null;
+      for (int i = 0; i < parentStates.length; i++) {
+        PatternMatcher patternMatcher = patternMatchers.get(i);
+        if (parentStates[i] != null && patternMatcher.matches(relativePath)) {
+          if (file == null) {
+            file = path.toFile();
+          }
+          matches.put(file, patternMatcher.pattern);
+        }
+      }
+    }
+
+    public static String relativePath(String parentRelativePath, String name) {
+      return parentRelativePath.isEmpty() ? name : (parentRelativePath + File.separator + name);
+    }
+
   }
 
-  private static String relativize(File parent, File file) {
-    return file.getAbsolutePath().substring(parent.getAbsolutePath().length() + 1);
+  /**
+   * A directory to visit, with the matching states of the patterns and the keys of its ancestors.
+   */
+  private static class Directory {
+
+    private final Path path;
+    private final String relativePath;
+    private final BitSet[] states;
+    private final List<Object> ancestorKeys;
+
+    public Directory(Path path, String relativePath, BitSet[] states, List<Object> ancestorKeys) {
+      this.path = path;
+      this.relativePath = relativePath;
+      this.states = states;
+      this.ancestorKeys = ancestorKeys;
+    }
+
+  }
+
+  /**
+   * Follows symbolic links, and detects their loops as {@link java.nio.file.Files#walkFileTree} does:
+   * a directory is skipped when its key is the one of one of its ancestors.
+   */
+  private static class Walk {
+
+    private final DirectoryListingCache directoryListingCache;
+    private final PatternMatchers patternMatchers;
+
+    public Walk(DirectoryListingCache directoryListingCache, PatternMatchers patternMatchers) {
+      this.directoryListingCache = directoryListingCache;
+      this.patternMatchers = patternMatchers;
+    }
+
+    public Multimap<File, String> walk(Path rootPath) {
+      Multimap<File, String> matches = LinkedHashMultimap.create();
+      Directory root = root(rootPath);
+      if (root == null) {
+        return matches;
+      }
+
+      Deque<Directory> directories = new ArrayDeque<>();
+      directories.push(root);
+      while (!directories.isEmpty()) {
+        List<Directory> subdirectories = Lists.newArrayList();
+        visit(directories.pop(), matches, subdirectories);
+        for (Directory subdirectory : subdirectories) {
+          directories.push(subdirectory);
+        }
+      }
+      return matches;
+    }
+
+    public Multimap<File, String> walkInParallel(ForkJoinPool pool, Path rootPath) {
+      Directory root = root(rootPath);
+      if (root == null) {
+        return ImmutableSetMultimap.of();
+      }
+      return pool.invoke(new DirectoryTask(this, root));
+    }
+
+    @Nullable
+    private Directory root(Path root) {
+      FileAttributes attributes = directoryListingCache.attributes(root);
+      if (attributes == null || !attributes.isDirectory()) {
+        return null;
+      }
+      return new Directory(root, "", patternMatchers.initialStates(), Collections.singletonList(fileKey(root, attributes)));
+    }
+
+    private void visit(Directory directory, Multimap<File, String> matches, List<Directory> subdirectories) {
+      for (Path entry : directoryListingCache.list(directory.path)) {
+        FileAttributes attributes = directoryListingCache.attributes(entry);
+        if (attributes == null) {
+          continue;
+        }
+
+        String name = entry.getFileName().toString();
+        String relativePath = PatternMatchers.relativePath(directory.relativePath, name);
+        if (attributes.isDirectory()) {
+          Object key = fileKey(entry, attributes);
+          if (key != null && directory.ancestorKeys.contains(key)) {
+            continue;
+          }
+
+          patternMatchers.match(entry, relativePath, directory.states, matches);
+          BitSet[] nextStates = patternMatchers.nextStates(directory.states, name);
+          if (nextStates != null) {
+            List<Object> keys = Lists.newArrayList(directory.ancestorKeys);
+            keys.add(key);
+            subdirectories.add(new Directory(entry, relativePath, nextStates, keys));
+          }
+        } else {
+          patternMatchers.match(entry, relativePath, directory.states, matches);
+        }
+      }
+    }
+
+  }
+
+  private static class DirectoryTask extends RecursiveTask<Multimap<File, String>> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Walk walk;
+    private final transient Directory directory;
+
+    public DirectoryTask(Walk walk, Directory directory) {
+      this.walk = walk;
+      this.directory = directory;
+    }
+
+    @Override
+    protected Multimap<File, String> compute() {
+      Multimap<File, String> matches = ArrayListMultimap.create();
+      List<Directory> subdirectories = Lists.newArrayList();
+      walk.visit(directory, matches, subdirectories);
+
+      List<DirectoryTask> subtasks = Lists.newArrayList();
+      for (Directory subdirectory : subdirectories) {
+        subtasks.add(new DirectoryTask(walk, subdirectory));
+      }
+      invokeAll(subtasks);
+      for (DirectoryTask subtask : subtasks) {
+        matches.putAll(subtask.join());
+      }
+      return matches;
+    }
+
   }
 
 }
@@ -19,36 +19,77 @@
  */
 package org.sonar.plugins.dotnet.tests;
 
-import com.google.common.base.Charsets;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 import com.google.common.io.Closeables;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import javax.annotation.Nullable;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
+import org.codehaus.stax2.typed.TypedXMLStreamException;
+import org.codehaus.stax2.typed.TypedXMLStreamReader;
 
 public class XmlParserHelper {
 
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * StAX factories, such as the Woodstox one provided by SonarQube, are thread-safe once configured.
+   */
+  private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+  private static final boolean STAX2_AVAILABLE = isStax2Available();
+
   private final File file;
-  private final InputStreamReader reader;
+  private final InputStream inputStream;
   private final XMLStreamReader stream;
+  @Nullable
+  private final TypedAttributes typedAttributes;
+  private int depth;
 
   public XmlParserHelper(File file) {
-    try {
-      this.file = file;
-      this.reader = new InputStreamReader(new FileInputStream(file), Charsets.UTF_8);
-      XMLInputFactory xmlFactory = XMLInputFactory.newInstance();
-      this.stream = xmlFactory.createXMLStreamReader(reader);
+    this(file, true);
+  }
 
+  @VisibleForTesting
+  XmlParserHelper(File file, boolean typedAttributeAccess) {
+    this.file = file;
+    try {
+      this.inputStream = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
     } catch (FileNotFoundException e) {
       throw Throwables.propagate(e);
+    }
+
+    try {
+      this.stream = XML_INPUT_FACTORY.createXMLStreamReader(inputStream);
     } catch (XMLStreamException e) {
-      throw Throwables.propagate(e);
+      Closeables.closeQuietly(inputStream);
+      throw new IllegalStateException("Error while parsing the XML file: " + file.getAbsolutePath(), e);
+    }
+
+    this.typedAttributes = typedAttributeAccess && STAX2_AVAILABLE ? TypedAttributes.of(this) : null;
+  }
+
+  private static XMLInputFactory createXmlInputFactory() {
+    XMLInputFactory xmlFactory = XMLInputFactory.newInstance();
+    xmlFactory.setProperty(XMLInputFactory.IS_COALESCING, false);
+    xmlFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    xmlFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    return xmlFactory;
+  }
+
+  private static boolean isStax2Available() {
+    try {
+      Class.forName("org.codehaus.stax2.typed.TypedXMLStreamReader", false, XmlParserHelper.class.getClassLoader());
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
     }
   }
 
@@ -64,8 +105,12 @@ public class XmlParserHelper {
   public String nextTag() {
     try {
       while (stream.hasNext()) {
-        if (stream.next() == XMLStreamConstants.START_ELEMENT) {
+        int event = stream.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          depth++;
           return stream.getLocalName();
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          depth--;
         }
       }
 
@@ -75,6 +120,26 @@ public class XmlParserHelper {
     }
   }
 
+  /**
+   * Reads the text of the current element, up to and including its end tag.
+   */
+  public String getElementText() {
+    try {
+      String text = stream.getElementText();
+      depth--;
+      return text;
+    } catch (XMLStreamException e) {
+      throw new IllegalStateException("Error while parsing the XML file: " + file.getAbsolutePath(), e);
+    }
+  }
+
+  /**
+   * Returns the nesting depth of the element last returned by {@link #nextTag()}, the root element being at depth 1.
+   */
+  public int depth() {
+    return depth;
+  }
+
   public void checkRequiredAttribute(String name, int expectedValue) {
     int actualValue = getRequiredIntAttribute(name);
     if (expectedValue != actualValue) {
@@ -83,27 +148,70 @@ public class XmlParserHelper {
   }
 
   public int getRequiredIntAttribute(String name) {
-    String value = getRequiredAttribute(name);
-    return tagToIntValue(name, value);
+    int index = attributeIndex(name);
+    if (index == -1) {
+      throw missingAttribute(name);
+    }
+
+    return intAttribute(name, index);
   }
 
   public int getIntAttributeOrZero(String name) {
-    String value = getAttribute(name);
-    return value == null ? 0 : tagToIntValue(name, value);
+    int index = attributeIndex(name);
+    return index == -1 ? 0 : intAttribute(name, index);
+  }
+
+  /**
+   * Returns the index of the attribute of the current element, or -1 if there is none.
+   * Names are compared by reference first, as StAX implementations such as Woodstox intern them.
+   */
+  private int attributeIndex(String name) {
+    if (typedAttributes != null) {
+      return typedAttributes.index(name);
+    }
+
+    int count = stream.getAttributeCount();
+    for (int i = 0; i < count; i++) {
+      String localName = stream.getAttributeLocalName(i);
+      if (name == localName || name.equals(localName)) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Decodes the integer straight from the parser's buffer when the reader supports Stax2 typed access,
+   * without allocating the attribute value.
+   */
+  private int intAttribute(String name, int index) {
+    if (typedAttributes != null) {
+      return typedAttributes.intValue(name, index);
+    }
+
+    return tagToIntValue(name, stream.getAttributeValue(index));
   }
 
+  /**
+   * Surrounding whitespace is ignored, as Stax2 typed access does.
+   */
   private int tagToIntValue(String name, String value) {
     try {
-      return Integer.parseInt(value);
+      return Integer.parseInt(value.trim());
     } catch (NumberFormatException e) {
-      throw parseError("Expected an integer instead of \"" + value + "\" for the attribute \"" + name + "\"");
+      throw notAnInteger(name, value);
     }
   }
 
+  private ParseErrorException notAnInteger(String name, String value) {
+    return parseError("Expected an integer instead of \"" + value + "\" for the attribute \"" + name + "\"");
+  }
+
   public String getRequiredAttribute(String name) {
     String value = getAttribute(name);
     if (value == null) {
-      throw parseError("Missing attribute \"" + name + "\" in element <" + stream.getLocalName() + ">");
+      throw missingAttribute(name);
     }
 
     return value;
@@ -111,13 +219,12 @@ public class XmlParserHelper {
 
   @Nullable
   public String getAttribute(String name) {
-    for (int i = 0; i < stream.getAttributeCount(); i++) {
-      if (name.equals(stream.getAttributeLocalName(i))) {
-        return stream.getAttributeValue(i);
-      }
-    }
+    int index = attributeIndex(name);
+    return index == -1 ? null : stream.getAttributeValue(index);
+  }
 
-    return null;
+  private ParseErrorException missingAttribute(String name) {
+    return parseError("Missing attribute \"" + name + "\" in element <" + stream.getLocalName() + ">");
   }
 
   public ParseErrorException parseError(String message) {
@@ -125,7 +232,7 @@ public class XmlParserHelper {
   }
 
   public void close() {
-    Closeables.closeQuietly(reader);
+    Closeables.closeQuietly(inputStream);
 
     if (stream != null) {
       try {
@@ -140,4 +247,42 @@ public class XmlParserHelper {
     return stream;
   }
 
+  /**
+   * Only loaded when the Stax2 API is on the classpath, which is the case with the Woodstox parser provided by SonarQube.
+   */
+  private static class TypedAttributes {
+
+    private final XmlParserHelper helper;
+    private final TypedXMLStreamReader stream;
+
+    private TypedAttributes(XmlParserHelper helper, TypedXMLStreamReader stream) {
+      this.helper = helper;
+      this.stream = stream;
+    }
+
+    @Nullable
+    private static TypedAttributes of(XmlParserHelper helper) {
+      if (helper.stream instanceof TypedXMLStreamReader) {
+        return new TypedAttributes(helper, (TypedXMLStreamReader) helper.stream);
+      }
+
+      return null;
+    }
+
+    private int index(String name) {
+      return stream.getAttributeIndex("", name);
+    }
+
+    private int intValue(String name, int index) {
+      try {
+        return stream.getAttributeAsInt(index);
+      } catch (TypedXMLStreamException e) {
+        throw helper.notAnInteger(name, e.getLexical());
+      } catch (XMLStreamException e) {
+        throw new IllegalStateException("Error while parsing the XML file: " + helper.file.getAbsolutePath(), e);
+      }
+    }
+
+  }
+
 }
@@ -0,0 +1,154 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import java.io.File;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sonar.api.batch.bootstrap.ProjectDefinition;
+import org.sonar.api.batch.bootstrap.ProjectReactor;
+import org.sonar.api.config.Settings;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AggregatedCoverageTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void aggregate_once_and_partition_by_module() throws Exception {
+    final File root = new File("src/test/resources").getCanonicalFile();
+    final String foo = new File(root, "foo/Foo.cs").getPath();
+    final String fooBar = new File(root, "foo/bar/FooBar.cs").getPath();
+    final String foobar = new File(root, "foobar/Foobar.cs").getPath();
+    final String outside = new File(root.getParentFile(), "Outside.cs").getPath();
+
+    final CoverageAggregator coverageAggregator = mock(CoverageAggregator.class);
+    when(coverageAggregator.aggregate(Mockito.any(WildcardPatternFileProvider.class), Mockito.eq(new BaseDirFileFilter(root)))).thenAnswer(new Answer<Coverage>() {
+      @Override
+      public Coverage answer(InvocationOnMock invocation) {
+        Coverage coverage = new Coverage();
+        coverage.addHits(foo, 1, 1);
+        coverage.addHits(fooBar, 1, 1);
+        coverage.addHits(foobar, 1, 1);
+        coverage.addHits(outside, 1, 1);
+        return coverage;
+      }
+    });
+    CoverageConfiguration coverageConf = new CoverageConfiguration("cs", "", "", "", "");
+
+    AggregatedCoverage aggregatedCoverage = Mockito.spy(new AggregatedCoverage(new Settings(), root, new DirectoryListingCache()));
+    Mockito.doReturn(coverageAggregator).when(aggregatedCoverage).coverageAggregator(coverageConf);
+    Coverage coverage = aggregatedCoverage.coverage(coverageConf);
+    assertThat(aggregatedCoverage.coverage(coverageConf)).isSameAs(coverage);
+    verify(aggregatedCoverage, Mockito.times(1)).coverageAggregator(coverageConf);
+    verify(coverageAggregator, Mockito.times(1)).aggregate(Mockito.any(WildcardPatternFileProvider.class), Mockito.eq(new BaseDirFileFilter(root)));
+
+    assertThat(aggregatedCoverage.files(coverageConf, root)).containsOnly(foo, fooBar, foobar);
+    assertThat(aggregatedCoverage.files(coverageConf, new File(root, "foo"))).containsOnly(foo, fooBar);
+    assertThat(aggregatedCoverage.files(coverageConf, new File(root, "foo/bar"))).containsOnly(fooBar);
+    assertThat(aggregatedCoverage.files(coverageConf, new File(root, "foobar"))).containsOnly(foobar);
+    assertThat(aggregatedCoverage.files(coverageConf, new File(root, "baz"))).isEmpty();
+  }
+
+  @Test
+  public void filter_and_partition_ignoring_case() throws Exception {
+    final File root = new File("src/test/resources").getCanonicalFile();
+    final String foo = new File(root, "foo/Foo.cs").getPath();
+    final String upperCaseFoo = new File(root, "FOO/Foo.cs").getPath();
+    final String fooBar = new File(root, "foo/bar/FooBar.cs").getPath();
+    final String foobar = new File(root, "foobar/Foobar.cs").getPath();
+
+    final CoverageAggregator coverageAggregator = mock(CoverageAggregator.class);
+    when(coverageAggregator.aggregate(Mockito.any(WildcardPatternFileProvider.class), Mockito.eq(new BaseDirFileFilter(root, true)))).thenAnswer(new Answer<Coverage>() {
+      @Override
+      public Coverage answer(InvocationOnMock invocation) {
+        Coverage coverage = new Coverage();
+        coverage.addHits(foo, 1, 1);
+        coverage.addHits(upperCaseFoo, 1, 1);
+        coverage.addHits(fooBar, 1, 1);
+        coverage.addHits(foobar, 1, 1);
+        return coverage;
+      }
+    });
+    CoverageConfiguration coverageConf = new CoverageConfiguration("cs", "", "", "", "");
+
+    AggregatedCoverage aggregatedCoverage = Mockito.spy(new AggregatedCoverage(new Settings(), root, true, new DirectoryListingCache()));
+    Mockito.doReturn(coverageAggregator).when(aggregatedCoverage).coverageAggregator(coverageConf);
+    aggregatedCoverage.coverage(coverageConf);
+
+    assertThat(aggregatedCoverage.files(coverageConf, root)).containsOnly(foo, upperCaseFoo, fooBar, foobar);
+    assertThat(aggregatedCoverage.files(coverageConf, new File(root, "foo"))).containsOnly(foo, upperCaseFoo, fooBar);
+    assertThat(aggregatedCoverage.files(coverageConf, new File(root, "Foo/Bar"))).containsOnly(fooBar);
+  }
+
+  @Test
+  public void report_paths_relative_to_the_root_project() throws Exception {
+    File root = new File("src/test/resources/cobertura");
+    Settings settings = new Settings();
+    settings.setProperty("cobertura", "valid.xml");
+    ProjectReactor projectReactor = new ProjectReactor(ProjectDefinition.create().setBaseDir(root));
+    CoverageConfiguration coverageConf = new CoverageConfiguration("cs", "", "", "", "").withCobertura("cobertura");
+
+    AggregatedCoverage aggregatedCoverage = new AggregatedCoverage(settings, projectReactor, new DirectoryListingCache());
+
+    assertThat(aggregatedCoverage.coverage(coverageConf).hits(new File(root, "sources/MyLibrary/Calc.cs").getCanonicalPath())).hasSize(8);
+    assertThat(aggregatedCoverage.files(coverageConf, new File(root, "sources"))).isNotEmpty();
+  }
+
+  @Test
+  public void aggregate_each_configuration_from_the_root_settings() throws Exception {
+    File root = new File("src/test/resources");
+    Settings settings = new Settings();
+    settings.setProperty("cobertura", "cobertura/valid.xml");
+    settings.setProperty("coverlet", "coverlet_json/valid.json");
+    CoverageConfiguration cobertura = new CoverageConfiguration("cs", "", "", "", "").withCobertura("cobertura");
+    CoverageConfiguration coverlet = new CoverageConfiguration("cs", "", "", "", "").withCoverletJson("coverlet");
+    CoverageConfiguration none = new CoverageConfiguration("vbnet", "", "", "", "").withCobertura("vbnet.cobertura");
+
+    AggregatedCoverage aggregatedCoverage = new AggregatedCoverage(settings, root, new DirectoryListingCache());
+    assertThat(aggregatedCoverage.hasCoverageProperty(cobertura)).isTrue();
+    assertThat(aggregatedCoverage.hasCoverageProperty(coverlet)).isTrue();
+    assertThat(aggregatedCoverage.hasCoverageProperty(none)).isFalse();
+
+    Coverage coberturaCoverage = aggregatedCoverage.coverage(cobertura);
+    Coverage coverletCoverage = aggregatedCoverage.coverage(coverlet);
+    assertThat(coverletCoverage).isNotSameAs(coberturaCoverage);
+    assertThat(aggregatedCoverage.coverage(new CoverageConfiguration("cs", "", "", "", "").withCobertura("cobertura"))).isSameAs(coberturaCoverage);
+    assertThat(aggregatedCoverage.files(cobertura, root)).isEqualTo(coberturaCoverage.files());
+    assertThat(aggregatedCoverage.files(coverlet, root)).isEqualTo(coverletCoverage.files());
+    assertThat(aggregatedCoverage.files(cobertura, root)).isNotEqualTo(aggregatedCoverage.files(coverlet, root));
+  }
+
+  @Test
+  public void files_before_aggregation() {
+    thrown.expectMessage("The coverage must be aggregated before being partitioned by module");
+    new AggregatedCoverage(new Settings(), new File("."), new DirectoryListingCache()).files(new CoverageConfiguration("cs", "", "", "", ""), new File("."));
+  }
+
+}
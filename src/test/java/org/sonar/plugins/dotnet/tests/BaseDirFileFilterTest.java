@@ -0,0 +1,64 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import java.io.File;
+import java.util.Locale;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class BaseDirFileFilterTest {
+
+  @Test
+  public void test() throws Exception {
+    File baseDir = new File("src/test/resources");
+    BaseDirFileFilter fileFilter = new BaseDirFileFilter(baseDir, false);
+
+    assertThat(fileFilter.apply(new File(baseDir, "Foo.cs").getCanonicalPath())).isTrue();
+    assertThat(fileFilter.apply(new File(baseDir, "foo/Bar.cs").getCanonicalPath())).isTrue();
+    assertThat(fileFilter.apply(new File("src/test/resourcesFoo.cs").getCanonicalPath())).isFalse();
+    assertThat(fileFilter.apply(new File("src/test/Foo.cs").getCanonicalPath())).isFalse();
+
+    assertThat(fileFilter.key()).isEqualTo(baseDir.getCanonicalPath() + File.separator);
+    assertThat(fileFilter).isEqualTo(new BaseDirFileFilter(new File("src/test/../test/resources"), false));
+    assertThat(fileFilter.hashCode()).isEqualTo(new BaseDirFileFilter(new File("src/test/../test/resources"), false).hashCode());
+    assertThat(fileFilter).isNotEqualTo(new BaseDirFileFilter(new File("src/test"), false));
+  }
+
+  @Test
+  public void case_insensitive() throws Exception {
+    File baseDir = new File("src/test/resources");
+    String upperCaseBaseDir = baseDir.getCanonicalPath().toUpperCase(Locale.ENGLISH);
+
+    BaseDirFileFilter caseSensitive = new BaseDirFileFilter(baseDir, false);
+    assertThat(caseSensitive.isCaseInsensitive()).isFalse();
+    assertThat(caseSensitive.apply(upperCaseBaseDir + File.separator + "Foo.cs")).isFalse();
+
+    BaseDirFileFilter caseInsensitive = new BaseDirFileFilter(baseDir, true);
+    assertThat(caseInsensitive.isCaseInsensitive()).isTrue();
+    assertThat(caseInsensitive.apply(upperCaseBaseDir + File.separator + "Foo.cs")).isTrue();
+    assertThat(caseInsensitive.apply(upperCaseBaseDir + "Foo.cs")).isFalse();
+
+    assertThat(caseInsensitive).isNotEqualTo(caseSensitive);
+    assertThat(caseInsensitive.key()).isNotEqualTo(caseSensitive.key());
+  }
+
+}
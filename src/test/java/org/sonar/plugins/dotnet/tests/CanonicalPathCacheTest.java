@@ -0,0 +1,54 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import java.io.File;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CanonicalPathCacheTest {
+
+  @Test
+  public void test() throws Exception {
+    CanonicalPathCache cache = new CanonicalPathCache();
+    String canonicalPath = new File("src/test/resources/opencover/valid.xml").getCanonicalPath();
+
+    assertThat(cache.canonicalPath("src/test/resources/opencover/valid.xml")).isEqualTo(canonicalPath);
+    assertThat(cache.canonicalPath(new String("src/test/resources/opencover/valid.xml"))).isSameAs(cache.canonicalPath("src/test/resources/opencover/valid.xml"));
+    assertThat(cache.canonicalPath("src/./test//resources/opencover/valid.xml")).isSameAs(cache.canonicalPath("src/test/resources/opencover/valid.xml"));
+    assertThat(cache.size()).isEqualTo(1);
+
+    assertThat(cache.canonicalPath("src/test/resources/../resources/opencover/valid.xml")).isSameAs(cache.canonicalPath("src/test/resources/opencover/valid.xml"));
+    assertThat(cache.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void normalize() {
+    String s = File.separator;
+    assertThat(CanonicalPathCache.normalize(s + "foo" + s + "bar.cs")).isEqualTo(s + "foo" + s + "bar.cs");
+    assertThat(CanonicalPathCache.normalize(s + "foo" + s + "." + s + s + "bar.cs" + s)).isEqualTo(s + "foo" + s + "bar.cs");
+    assertThat(CanonicalPathCache.normalize(s + s + "server" + s + "share" + s + "." + s + "bar.cs")).isEqualTo(s + s + "server" + s + "share" + s + "bar.cs");
+    assertThat(CanonicalPathCache.normalize(s + "foo" + s + ".." + s + "bar.cs")).isEqualTo(s + "foo" + s + ".." + s + "bar.cs");
+    assertThat(CanonicalPathCache.normalize(s + "foo" + s + ".bar" + s + "baz.cs")).isEqualTo(s + "foo" + s + ".bar" + s + "baz.cs");
+    assertThat(CanonicalPathCache.normalize(s)).isEqualTo(s);
+  }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import org.fest.assertions.MapAssert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class CoberturaReportParserTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void invalid_root() {
+    thrown.expect(RuntimeException.class);
+    thrown.expectMessage("<coverage>");
+    new CoberturaReportParser().parse(new File("src/test/resources/cobertura/invalid_root.xml"), mock(Coverage.class));
+  }
+
+  @Test
+  public void non_existing_file() {
+    thrown.expect(RuntimeException.class);
+    thrown.expectMessage("non_existing_file.xml");
+    new CoberturaReportParser().parse(new File("src/test/resources/cobertura/non_existing_file.xml"), mock(Coverage.class));
+  }
+
+  @Test
+  public void invalid_hits() {
+    thrown.expect(ParseErrorException.class);
+    thrown.expectMessage("Expected an integer instead of \"foo\" for the attribute \"hits\"");
+    thrown.expectMessage("invalid_hits.xml");
+    thrown.expectMessage("line 8");
+    new CoberturaReportParser().parse(new File("src/test/resources/cobertura/invalid_hits.xml"), mock(Coverage.class));
+  }
+
+  @Test
+  public void valid() throws Exception {
+    Coverage coverage = new Coverage();
+    new CoberturaReportParser().parse(new File("src/test/resources/cobertura/valid.xml"), coverage);
+
+    String calc = new File("src/test/resources/cobertura/sources/MyLibrary/Calc.cs").getCanonicalPath();
+    String other = new File("src/test/resources/cobertura/missing/MyLibrary/Other.cs").getCanonicalPath();
+    assertThat(coverage.files()).containsOnly(calc, other);
+
+    assertThat(coverage.hits(calc))
+      .hasSize(8)
+      .includes(
+        MapAssert.entry(12, 0),
+        MapAssert.entry(13, 0),
+        MapAssert.entry(14, 0),
+        MapAssert.entry(17, 2),
+        MapAssert.entry(18, 2),
+        MapAssert.entry(19, 2),
+        MapAssert.entry(22, 0),
+        MapAssert.entry(30, 1));
+
+    assertThat(coverage.hits(other))
+      .hasSize(1)
+      .includes(MapAssert.entry(3, 0));
+  }
+
+  @Test
+  public void should_not_fail_with_invalid_path() {
+    new CoberturaReportParser().parse(new File("src/test/resources/cobertura/invalid_path.xml"), mock(Coverage.class));
+  }
+
+}
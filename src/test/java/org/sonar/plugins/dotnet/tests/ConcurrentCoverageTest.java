@@ -0,0 +1,119 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ConcurrentCoverageTest {
+
+  @Test
+  public void test() {
+    ConcurrentCoverage concurrentCoverage = new ConcurrentCoverage();
+    assertThat(concurrentCoverage.toCoverage().files()).isEmpty();
+
+    Coverage shard = concurrentCoverage.acquireShard();
+    shard.addHits("foo.txt", 1, 2);
+    shard.addHits("bar.txt", 2, 1);
+    Coverage otherShard = concurrentCoverage.acquireShard();
+    otherShard.addHits(otherShard.fileId("foo.txt"), 1, 3);
+    concurrentCoverage.releaseShard(shard);
+    concurrentCoverage.releaseShard(otherShard);
+
+    Coverage coverage = concurrentCoverage.toCoverage();
+    assertThat(coverage.dictionary()).isSameAs(concurrentCoverage.dictionary());
+    assertThat(coverage.files()).containsOnly("foo.txt", "bar.txt");
+    assertThat(coverage.hits("foo.txt")).isEqualTo(ImmutableMap.of(1, 5));
+    assertThat(coverage.hits("bar.txt")).isEqualTo(ImmutableMap.of(2, 1));
+  }
+
+  @Test
+  public void shards_are_reused_once_released() {
+    ConcurrentCoverage concurrentCoverage = new ConcurrentCoverage();
+    Coverage first = concurrentCoverage.acquireShard();
+    Coverage second = concurrentCoverage.acquireShard();
+    assertThat(second).isNotSameAs(first);
+
+    concurrentCoverage.releaseShard(first);
+    assertThat(concurrentCoverage.acquireShard()).isSameAs(first);
+  }
+
+  @Test
+  public void concurrent_writers() throws Exception {
+    final ConcurrentCoverage concurrentCoverage = new ConcurrentCoverage();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<Void>> futures = Lists.newArrayList();
+    for (int i = 0; i < 32; i++) {
+      final int file = i % 4;
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() {
+          Coverage shard = concurrentCoverage.acquireShard();
+          try {
+            int fileId = shard.fileId("file" + file + ".cs");
+            for (int line = 1; line <= 1000; line++) {
+              shard.addHits(fileId, line, line % 3);
+            }
+          } finally {
+            concurrentCoverage.releaseShard(shard);
+          }
+          return null;
+        }
+      }));
+    }
+    for (Future<Void> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+
+    Coverage coverage = concurrentCoverage.toCoverage();
+    assertThat(coverage.files()).containsOnly("file0.cs", "file1.cs", "file2.cs", "file3.cs");
+    for (String file : coverage.files()) {
+      assertThat(coverage.hits(file)).hasSize(1000);
+      assertThat(coverage.hits(file).get(1)).isEqualTo(8);
+      assertThat(coverage.hits(file).get(3)).isEqualTo(0);
+      assertThat(coverage.hits(file).get(1000)).isEqualTo(8);
+    }
+  }
+
+  @Test
+  public void file_filter() {
+    ConcurrentCoverage concurrentCoverage = new ConcurrentCoverage(new FilePathDictionary(), Predicates.equalTo("foo.txt"));
+    Coverage shard = concurrentCoverage.acquireShard();
+    shard.addHits("foo.txt", 1, 2);
+    shard.addHits("bar.txt", 1, 2);
+    assertThat(shard.fileId("bar.txt")).isEqualTo(FilePathDictionary.UNKNOWN_FILE_ID);
+    concurrentCoverage.releaseShard(shard);
+
+    Coverage coverage = concurrentCoverage.toCoverage();
+    assertThat(coverage.fileFilter()).isSameAs(concurrentCoverage.acquireShard().fileFilter());
+    assertThat(coverage.files()).containsOnly("foo.txt");
+  }
+
+}
@@ -19,11 +19,15 @@
  */
 package org.sonar.plugins.dotnet.tests;
 
+import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.io.Files;
 import java.io.File;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
@@ -40,6 +44,9 @@ public class CoverageAggregatorTest {
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
   @Test
   public void hasCoverageProperty() {
     Settings settings = mock(Settings.class);
@@ -82,12 +89,40 @@ public class CoverageAggregatorTest {
     when(settings.hasKey("dotcover")).thenReturn(true);
     when(settings.hasKey("visualstudio")).thenReturn(true);
     assertThat(new CoverageAggregator(coverageConf, settings).hasCoverageProperty()).isFalse();
+
+    coverageConf = new CoverageConfiguration("", "ncover2", "opencover2", "dotcover2", "visualstudio2").withDotCoverDetailedXml("dotcoverdetailedxml");
+    when(settings.hasKey("dotcoverdetailedxml")).thenReturn(true);
+    assertThat(new CoverageAggregator(coverageConf, settings).hasCoverageProperty()).isTrue();
+
+    coverageConf = new CoverageConfiguration("", "ncover2", "opencover2", "dotcover2", "visualstudio2").withCobertura("cobertura");
+    when(settings.hasKey("cobertura")).thenReturn(true);
+    assertThat(new CoverageAggregator(coverageConf, settings).hasCoverageProperty()).isTrue();
+
+    coverageConf = new CoverageConfiguration("", "ncover2", "opencover2", "dotcover2", "visualstudio2").withCoverletJson("coverlet");
+    when(settings.hasKey("coverlet")).thenReturn(true);
+    assertThat(new CoverageAggregator(coverageConf, settings).hasCoverageProperty()).isTrue();
+  }
+
+  @Test
+  public void aggregate_dotcover_detailed_xml() throws Exception {
+    CoverageConfiguration coverageConf = new CoverageConfiguration("", "ncover", "opencover", "dotcover", "visualstudio").withDotCoverDetailedXml("dotcoverdetailedxml");
+    Settings settings = new Settings();
+    settings.setProperty("dotcoverdetailedxml", "valid.xml");
+    DotCoverDetailedXmlReportParser dotCoverDetailedXmlReportParser = Mockito.spy(new DotCoverDetailedXmlReportParser());
+
+    Coverage coverage = new CoverageAggregator(coverageConf, settings, new CoverageCache(), mock(NCover3ReportParser.class), mock(OpenCoverReportParser.class),
+      mock(DotCoverReportsAggregator.class), mock(VisualStudioCoverageXmlReportParser.class), dotCoverDetailedXmlReportParser,
+      mock(CoberturaReportParser.class), mock(CoverletJsonReportParser.class))
+      .aggregate(new WildcardPatternFileProvider(new File("src/test/resources/dotcover_detailed_xml"), File.separator), new Coverage());
+
+    verify(dotCoverDetailedXmlReportParser).parse(Mockito.any(File.class), Mockito.any(Coverage.class));
+    assertThat(coverage.hits(new File("MyLibrary\\Calc.cs").getCanonicalPath())).hasSize(7);
   }
 
   @Test
   public void aggregate() {
     CoverageCache cache = mock(CoverageCache.class);
-    when(cache.readCoverageFromCacheOrParse(Mockito.any(CoverageParser.class), Mockito.any(File.class))).thenAnswer(
+    when(cache.readCoverageFromCacheOrParse(Mockito.any(CoverageParser.class), Mockito.any(File.class), Mockito.any(Predicate.class))).thenAnswer(
       new Answer<Coverage>() {
         @Override
         public Coverage answer(InvocationOnMock invocation) throws Throwable {
@@ -107,7 +142,7 @@ public class CoverageAggregatorTest {
 
     when(settings.hasKey("ncover")).thenReturn(true);
     when(settings.getString("ncover")).thenReturn("foo.nccov");
-    when(wildcardPatternFileProvider.listFiles("foo.nccov")).thenReturn(ImmutableSet.of(new File("foo.nccov")));
+    when(wildcardPatternFileProvider.matchFiles(ImmutableSet.of("foo.nccov"), 1)).thenReturn(ImmutableSetMultimap.of(new File("foo.nccov"), "foo.nccov"));
     when(settings.hasKey("opencover")).thenReturn(false);
     when(settings.hasKey("dotcover")).thenReturn(false);
     when(settings.hasKey("visualstudio")).thenReturn(false);
@@ -120,7 +155,7 @@ public class CoverageAggregatorTest {
     new CoverageAggregator(coverageConf, settings, cache, ncoverParser, openCoverParser, dotCoverParser, visualStudioCoverageXmlReportParser)
       .aggregate(wildcardPatternFileProvider, coverage);
     verify(ncoverParser).parse(Mockito.eq(new File("foo.nccov")), captor.capture());
-    verify(cache).readCoverageFromCacheOrParse(Mockito.eq(ncoverParser), Mockito.any(File.class));
+    verify(cache).readCoverageFromCacheOrParse(Mockito.eq(ncoverParser), Mockito.any(File.class), Mockito.any(Predicate.class));
     verify(coverage).mergeWith(captor.getValue());
     verify(openCoverParser, Mockito.never()).parse(Mockito.any(File.class), Mockito.any(Coverage.class));
     verify(dotCoverParser, Mockito.never()).parse(Mockito.any(File.class), Mockito.any(Coverage.class));
@@ -129,7 +164,7 @@ public class CoverageAggregatorTest {
     when(settings.hasKey("ncover")).thenReturn(false);
     when(settings.hasKey("opencover")).thenReturn(true);
     when(settings.getString("opencover")).thenReturn("bar.xml");
-    when(wildcardPatternFileProvider.listFiles("bar.xml")).thenReturn(ImmutableSet.of(new File("bar.xml")));
+    when(wildcardPatternFileProvider.matchFiles(ImmutableSet.of("bar.xml"), 1)).thenReturn(ImmutableSetMultimap.of(new File("bar.xml"), "bar.xml"));
     when(settings.hasKey("dotcover")).thenReturn(false);
     when(settings.hasKey("visualstudio")).thenReturn(false);
     ncoverParser = mock(NCover3ReportParser.class);
@@ -142,7 +177,7 @@ public class CoverageAggregatorTest {
       .aggregate(wildcardPatternFileProvider, coverage);
     verify(ncoverParser, Mockito.never()).parse(Mockito.any(File.class), Mockito.any(Coverage.class));
     verify(openCoverParser).parse(Mockito.eq(new File("bar.xml")), captor.capture());
-    verify(cache).readCoverageFromCacheOrParse(Mockito.eq(openCoverParser), Mockito.any(File.class));
+    verify(cache).readCoverageFromCacheOrParse(Mockito.eq(openCoverParser), Mockito.any(File.class), Mockito.any(Predicate.class));
     verify(coverage).mergeWith(captor.getValue());
     verify(dotCoverParser, Mockito.never()).parse(Mockito.any(File.class), Mockito.any(Coverage.class));
     verify(visualStudioCoverageXmlReportParser, Mockito.never()).parse(Mockito.any(File.class), Mockito.any(Coverage.class));
@@ -151,7 +186,7 @@ public class CoverageAggregatorTest {
     when(settings.hasKey("opencover")).thenReturn(false);
     when(settings.hasKey("dotcover")).thenReturn(true);
     when(settings.getString("dotcover")).thenReturn("baz.html");
-    when(wildcardPatternFileProvider.listFiles("baz.html")).thenReturn(ImmutableSet.of(new File("baz.html")));
+    when(wildcardPatternFileProvider.matchFiles(ImmutableSet.of("baz.html"), 1)).thenReturn(ImmutableSetMultimap.of(new File("baz.html"), "baz.html"));
     when(settings.hasKey("visualstudio")).thenReturn(false);
     ncoverParser = mock(NCover3ReportParser.class);
     openCoverParser = mock(OpenCoverReportParser.class);
@@ -164,7 +199,7 @@ public class CoverageAggregatorTest {
     verify(ncoverParser, Mockito.never()).parse(Mockito.any(File.class), Mockito.any(Coverage.class));
     verify(openCoverParser, Mockito.never()).parse(Mockito.any(File.class), Mockito.any(Coverage.class));
     verify(dotCoverParser).parse(Mockito.eq(new File("baz.html")), captor.capture());
-    verify(cache).readCoverageFromCacheOrParse(Mockito.eq(dotCoverParser), Mockito.any(File.class));
+    verify(cache).readCoverageFromCacheOrParse(Mockito.eq(dotCoverParser), Mockito.any(File.class), Mockito.any(Predicate.class));
     verify(coverage).mergeWith(captor.getValue());
     verify(visualStudioCoverageXmlReportParser, Mockito.never()).parse(Mockito.any(File.class), Mockito.any(Coverage.class));
 
@@ -173,7 +208,7 @@ public class CoverageAggregatorTest {
     when(settings.hasKey("dotcover")).thenReturn(false);
     when(settings.hasKey("visualstudio")).thenReturn(true);
     when(settings.getString("visualstudio")).thenReturn("qux.coveragexml");
-    when(wildcardPatternFileProvider.listFiles("qux.coveragexml")).thenReturn(ImmutableSet.of(new File("qux.coveragexml")));
+    when(wildcardPatternFileProvider.matchFiles(ImmutableSet.of("qux.coveragexml"), 1)).thenReturn(ImmutableSetMultimap.of(new File("qux.coveragexml"), "qux.coveragexml"));
     ncoverParser = mock(NCover3ReportParser.class);
     openCoverParser = mock(OpenCoverReportParser.class);
     dotCoverParser = mock(DotCoverReportsAggregator.class);
@@ -186,24 +221,25 @@ public class CoverageAggregatorTest {
     verify(openCoverParser, Mockito.never()).parse(Mockito.any(File.class), Mockito.any(Coverage.class));
     verify(dotCoverParser, Mockito.never()).parse(Mockito.any(File.class), Mockito.any(Coverage.class));
     verify(visualStudioCoverageXmlReportParser).parse(Mockito.eq(new File("qux.coveragexml")), captor.capture());
-    verify(cache).readCoverageFromCacheOrParse(Mockito.eq(visualStudioCoverageXmlReportParser), Mockito.any(File.class));
+    verify(cache).readCoverageFromCacheOrParse(Mockito.eq(visualStudioCoverageXmlReportParser), Mockito.any(File.class), Mockito.any(Predicate.class));
     verify(coverage).mergeWith(captor.getValue());
 
-    Mockito.reset(wildcardPatternFileProvider);
-
     when(settings.hasKey("ncover")).thenReturn(true);
     when(settings.getString("ncover")).thenReturn(",*.nccov  ,bar.nccov");
-    when(wildcardPatternFileProvider.listFiles("*.nccov")).thenReturn(ImmutableSet.of(new File("foo.nccov")));
-    when(wildcardPatternFileProvider.listFiles("bar.nccov")).thenReturn(ImmutableSet.of(new File("bar.nccov")));
     when(settings.hasKey("opencover")).thenReturn(true);
     when(settings.getString("opencover")).thenReturn("bar.xml");
-    when(wildcardPatternFileProvider.listFiles("bar.xml")).thenReturn(ImmutableSet.of(new File("bar.xml")));
     when(settings.hasKey("dotcover")).thenReturn(true);
     when(settings.getString("dotcover")).thenReturn("baz.html");
-    when(wildcardPatternFileProvider.listFiles("baz.html")).thenReturn(ImmutableSet.of(new File("baz.html")));
     when(settings.hasKey("visualstudio")).thenReturn(true);
     when(settings.getString("visualstudio")).thenReturn("qux.coveragexml");
-    when(wildcardPatternFileProvider.listFiles("qux.coveragexml")).thenReturn(ImmutableSet.of(new File("qux.coveragexml")));
+    when(wildcardPatternFileProvider.matchFiles(ImmutableSet.of("*.nccov", "bar.nccov", "bar.xml", "baz.html", "qux.coveragexml"), 1)).thenReturn(
+      ImmutableSetMultimap.<File, String>builder()
+        .put(new File("foo.nccov"), "*.nccov")
+        .put(new File("bar.nccov"), "bar.nccov")
+        .put(new File("bar.xml"), "bar.xml")
+        .put(new File("baz.html"), "baz.html")
+        .put(new File("qux.coveragexml"), "qux.coveragexml")
+        .build());
     ncoverParser = mock(NCover3ReportParser.class);
     openCoverParser = mock(OpenCoverReportParser.class);
     dotCoverParser = mock(DotCoverReportsAggregator.class);
@@ -214,11 +250,7 @@ public class CoverageAggregatorTest {
     new CoverageAggregator(coverageConf, settings, cache, ncoverParser, openCoverParser, dotCoverParser, visualStudioCoverageXmlReportParser)
       .aggregate(wildcardPatternFileProvider, coverage);
 
-    verify(wildcardPatternFileProvider).listFiles("*.nccov");
-    verify(wildcardPatternFileProvider).listFiles("bar.nccov");
-    verify(wildcardPatternFileProvider).listFiles("bar.xml");
-    verify(wildcardPatternFileProvider).listFiles("baz.html");
-    verify(wildcardPatternFileProvider).listFiles("qux.coveragexml");
+    verify(wildcardPatternFileProvider).matchFiles(ImmutableSet.of("*.nccov", "bar.nccov", "bar.xml", "baz.html", "qux.coveragexml"), 1);
 
     verify(ncoverParser).parse(Mockito.eq(new File("foo.nccov")), captor.capture());
     verify(ncoverParser).parse(Mockito.eq(new File("bar.nccov")), captor.capture());
@@ -231,4 +263,161 @@ public class CoverageAggregatorTest {
     }
   }
 
+  @Test
+  public void aggregate_in_parallel() {
+    CoverageConfiguration coverageConf = new CoverageConfiguration("", "ncover", "opencover", "dotcover", "visualstudio").withParallelism("parallelism");
+    Settings settings = new Settings();
+    settings.setProperty("ncover", "src/test/resources/ncover3/valid.nccov");
+    settings.setProperty("opencover", "src/test/resources/opencover/valid.xml,src/test/resources/opencover/valid.xml");
+    settings.setProperty("visualstudio", "src/test/resources/visualstudio_coverage_xml/valid.coveragexml");
+    WildcardPatternFileProvider wildcardPatternFileProvider = new WildcardPatternFileProvider(new File("."), "/");
+
+    Coverage sequential = new CoverageAggregator(coverageConf, settings).aggregate(wildcardPatternFileProvider, new Coverage());
+
+    settings.setProperty("parallelism", 4);
+    Coverage parallel = new CoverageAggregator(coverageConf, settings).aggregate(wildcardPatternFileProvider, new Coverage());
+
+    assertThat(sequential.files()).isNotEmpty();
+    assertThat(parallel.files()).isEqualTo(sequential.files());
+    for (String file : sequential.files()) {
+      assertThat(parallel.hits(file)).isEqualTo(sequential.hits(file));
+    }
+  }
+
+  @Test
+  public void invalid_parallelism() {
+    thrown.expectMessage("The property \"parallelism\" must be a positive number of threads, got: 0");
+
+    CoverageConfiguration coverageConf = new CoverageConfiguration("", "ncover", "opencover", "dotcover", "visualstudio").withParallelism("parallelism");
+    Settings settings = new Settings();
+    settings.setProperty("parallelism", 0);
+    new CoverageAggregator(coverageConf, settings).aggregate(mock(WildcardPatternFileProvider.class), new Coverage());
+  }
+
+  @Test
+  public void cache_size() {
+    CoverageConfiguration coverageConf = new CoverageConfiguration("", "ncover", "opencover", "dotcover", "visualstudio").withCacheSize("cachesize");
+    Settings settings = new Settings();
+    assertThat(new CoverageAggregator(coverageConf, settings).coverageCache().maxMemoryUsage()).isEqualTo(Runtime.getRuntime().maxMemory() / 4);
+
+    settings.setProperty("cachesize", 16);
+    assertThat(new CoverageAggregator(coverageConf, settings).coverageCache().maxMemoryUsage()).isEqualTo(16 * 1024 * 1024);
+
+    settings.setProperty("cachesize", 0);
+    assertThat(new CoverageAggregator(coverageConf, settings).coverageCache().maxMemoryUsage()).isEqualTo(0);
+  }
+
+  @Test
+  public void persistent_cache_directory() {
+    CoverageConfiguration coverageConf = new CoverageConfiguration("", "ncover", "opencover", "dotcover", "visualstudio").withPersistentCacheDirectory("cachedir");
+    Settings settings = new Settings();
+    assertThat(new CoverageAggregator(coverageConf, settings).coverageCache().persistentCache()).isNull();
+
+    File directory = new File(tmp.getRoot(), "cache");
+    settings.setProperty("cachedir", directory.getAbsolutePath());
+    assertThat(new CoverageAggregator(coverageConf, settings).coverageCache().persistentCache().directory()).isEqualTo(directory);
+
+    settings.setProperty("cachedir", "cache");
+    assertThat(new CoverageAggregator(coverageConf, settings).coverageCache().persistentCache().directory()).isEqualTo(new File(".sonar", "cache"));
+
+    settings.setProperty("sonar.working.directory", tmp.getRoot().getAbsolutePath());
+    assertThat(new CoverageAggregator(coverageConf, settings).coverageCache().persistentCache().directory()).isEqualTo(directory);
+  }
+
+  @Test
+  public void invalid_cache_size() {
+    thrown.expectMessage("The property \"cachesize\" must be a number of megabytes, got: -1");
+
+    CoverageConfiguration coverageConf = new CoverageConfiguration("", "ncover", "opencover", "dotcover", "visualstudio").withCacheSize("cachesize");
+    Settings settings = new Settings();
+    settings.setProperty("cachesize", -1);
+    new CoverageAggregator(coverageConf, settings);
+  }
+
+  @Test
+  public void aggregate_deduplicates_reports() throws Exception {
+    File report = tmp.newFile("report.xml");
+    Files.copy(new File("src/test/resources/opencover/valid.xml"), report);
+    Files.copy(report, tmp.newFile("copy.xml"));
+    java.nio.file.Files.createSymbolicLink(new File(tmp.getRoot(), "link.xml").toPath(), report.toPath());
+
+    Coverage expected = new Coverage();
+    new OpenCoverReportParser().parse(report, expected);
+
+    CoverageConfiguration coverageConf = new CoverageConfiguration("", "ncover", "opencover", "dotcover", "visualstudio");
+    Settings settings = new Settings();
+    settings.setProperty("opencover", "report.xml,*.xml");
+    OpenCoverReportParser openCoverParser = Mockito.spy(new OpenCoverReportParser());
+    Coverage coverage = new CoverageAggregator(coverageConf, settings, new CoverageCache(), mock(NCover3ReportParser.class), openCoverParser,
+      mock(DotCoverReportsAggregator.class), mock(VisualStudioCoverageXmlReportParser.class))
+      .aggregate(new WildcardPatternFileProvider(tmp.getRoot(), File.separator), new Coverage());
+
+    verify(openCoverParser, Mockito.times(1)).parse(Mockito.any(File.class), Mockito.any(Coverage.class));
+    assertThat(coverage.files()).isEqualTo(expected.files());
+    for (String file : expected.files()) {
+      assertThat(coverage.hits(file)).isEqualTo(expected.hits(file));
+    }
+  }
+
+  @Test
+  public void dotcover_html_reports_are_not_deduplicated_by_content() throws Exception {
+    Files.copy(new File("src/test/resources/dotcover/valid.html"), tmp.newFile("first.html"));
+    Files.copy(new File("src/test/resources/dotcover/valid.html"), tmp.newFile("second.html"));
+
+    CoverageConfiguration coverageConf = new CoverageConfiguration("", "ncover", "opencover", "dotcover", "visualstudio");
+    Settings settings = new Settings();
+    settings.setProperty("dotcover", "*.html");
+    DotCoverReportsAggregator dotCoverParser = mock(DotCoverReportsAggregator.class);
+    new CoverageAggregator(coverageConf, settings, new CoverageCache(), mock(NCover3ReportParser.class), mock(OpenCoverReportParser.class),
+      dotCoverParser, mock(VisualStudioCoverageXmlReportParser.class))
+      .aggregate(new WildcardPatternFileProvider(tmp.getRoot(), File.separator), new Coverage());
+
+    verify(dotCoverParser, Mockito.times(2)).parse(Mockito.any(File.class), Mockito.any(Coverage.class));
+  }
+
+  @Test
+  public void aggregate_cobertura() throws Exception {
+    CoverageConfiguration coverageConf = new CoverageConfiguration("", "ncover", "opencover", "dotcover", "visualstudio").withCobertura("cobertura");
+    Settings settings = new Settings();
+    settings.setProperty("cobertura", "src/test/resources/cobertura/valid.xml");
+    CoberturaReportParser coberturaReportParser = Mockito.spy(new CoberturaReportParser());
+
+    Coverage coverage = new CoverageAggregator(coverageConf, settings, new CoverageCache(), mock(NCover3ReportParser.class), mock(OpenCoverReportParser.class),
+      mock(DotCoverReportsAggregator.class), mock(VisualStudioCoverageXmlReportParser.class), mock(DotCoverDetailedXmlReportParser.class), coberturaReportParser,
+      mock(CoverletJsonReportParser.class))
+      .aggregate(new WildcardPatternFileProvider(new File("."), File.separator), new Coverage());
+
+    verify(coberturaReportParser).parse(Mockito.any(File.class), Mockito.any(Coverage.class));
+    assertThat(coverage.hits(new File("src/test/resources/cobertura/sources/MyLibrary/Calc.cs").getCanonicalPath())).hasSize(8);
+  }
+
+  @Test
+  public void aggregate_into_the_dictionary_of_the_cache() {
+    CoverageConfiguration coverageConf = new CoverageConfiguration("", "ncover", "opencover", "dotcover", "visualstudio").withCobertura("cobertura");
+    Settings settings = new Settings();
+    settings.setProperty("cobertura", "src/test/resources/cobertura/valid.xml");
+    CoverageAggregator coverageAggregator = new CoverageAggregator(coverageConf, settings);
+
+    Coverage coverage = coverageAggregator.aggregate(new WildcardPatternFileProvider(new File("."), File.separator));
+
+    assertThat(coverage.files()).isNotEmpty();
+    assertThat(coverage.dictionary()).isSameAs(coverageAggregator.coverageCache().dictionary());
+  }
+
+  @Test
+  public void aggregate_coverlet_json() throws Exception {
+    CoverageConfiguration coverageConf = new CoverageConfiguration("", "ncover", "opencover", "dotcover", "visualstudio").withCoverletJson("coverlet");
+    Settings settings = new Settings();
+    settings.setProperty("coverlet", "src/test/resources/coverlet_json/valid.json");
+    CoverletJsonReportParser coverletJsonReportParser = Mockito.spy(new CoverletJsonReportParser());
+
+    Coverage coverage = new CoverageAggregator(coverageConf, settings, new CoverageCache(), mock(NCover3ReportParser.class), mock(OpenCoverReportParser.class),
+      mock(DotCoverReportsAggregator.class), mock(VisualStudioCoverageXmlReportParser.class), mock(DotCoverDetailedXmlReportParser.class),
+      mock(CoberturaReportParser.class), coverletJsonReportParser)
+      .aggregate(new WildcardPatternFileProvider(new File("."), File.separator), new Coverage());
+
+    verify(coverletJsonReportParser).parse(Mockito.any(File.class), Mockito.any(Coverage.class));
+    assertThat(coverage.hits(new File("MyLibrary\\Calc.cs").getCanonicalPath())).hasSize(7);
+  }
+
 }
@@ -19,22 +19,46 @@
  */
 package org.sonar.plugins.dotnet.tests;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import com.google.common.collect.Lists;
 import java.io.File;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.when;
 
 public class CoverageCacheTest {
 
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
   @Test
   public void test() {
     CoverageCache cache = new CoverageCache();
     CoverageParser parser = mock(CoverageParser.class);
-    File reportFile = mock(File.class);
-    when(reportFile.getAbsolutePath()).thenReturn("foo.txt");
+    File reportFile = new File("foo.txt");
 
     Coverage coverage = cache.readCoverageFromCacheOrParse(parser, reportFile);
     verify(parser, Mockito.times(1)).parse(reportFile, coverage);
@@ -43,4 +67,233 @@ public class CoverageCacheTest {
     verify(parser, Mockito.times(1)).parse(Mockito.eq(reportFile), Mockito.any(Coverage.class));
   }
 
+  @Test
+  public void same_report_read_by_different_parsers() {
+    CoverageCache cache = new CoverageCache();
+    File reportFile = new File("foo.txt");
+    CoverageParser parser = mock(CoverageParser.class);
+    CoverageParser otherParser = mock(OpenCoverReportParser.class);
+
+    Coverage coverage = cache.readCoverageFromCacheOrParse(parser, reportFile);
+    Coverage otherCoverage = cache.readCoverageFromCacheOrParse(otherParser, reportFile);
+    assertThat(otherCoverage).isNotSameAs(coverage);
+    verify(otherParser, Mockito.times(1)).parse(reportFile, otherCoverage);
+    assertThat(cache.readCoverageFromCacheOrParse(parser, reportFile)).isSameAs(coverage);
+    assertThat(cache.readCoverageFromCacheOrParse(otherParser, reportFile)).isSameAs(otherCoverage);
+  }
+
+  @Test
+  public void least_recently_used_reports_are_evicted() {
+    CoverageParser parser = mock(CoverageParser.class);
+    Mockito.doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        File reportFile = (File) invocation.getArguments()[0];
+        Coverage coverage = (Coverage) invocation.getArguments()[1];
+        coverage.addHits(reportFile.getName() + ".cs", 1000, 1);
+        return null;
+      }
+    }).when(parser).parse(Mockito.any(File.class), Mockito.any(Coverage.class));
+
+    File foo = new File("foo");
+    File bar = new File("bar");
+    File baz = new File("baz");
+
+    Coverage coverage = new Coverage();
+    coverage.addHits("foo.cs", 1000, 1);
+    long reportMemoryUsage = coverage.estimatedMemoryUsage();
+
+    CoverageCache cache = new CoverageCache(2 * reportMemoryUsage);
+    cache.readCoverageFromCacheOrParse(parser, foo);
+    cache.readCoverageFromCacheOrParse(parser, bar);
+    assertThat(cache.memoryUsage()).isEqualTo(2 * reportMemoryUsage);
+
+    cache.readCoverageFromCacheOrParse(parser, foo);
+    cache.readCoverageFromCacheOrParse(parser, baz);
+    assertThat(cache.memoryUsage()).isEqualTo(2 * reportMemoryUsage);
+    verify(parser, Mockito.times(1)).parse(Mockito.eq(foo), Mockito.any(Coverage.class));
+
+    cache.readCoverageFromCacheOrParse(parser, foo);
+    verify(parser, Mockito.times(1)).parse(Mockito.eq(foo), Mockito.any(Coverage.class));
+    cache.readCoverageFromCacheOrParse(parser, bar);
+    verify(parser, Mockito.times(2)).parse(Mockito.eq(bar), Mockito.any(Coverage.class));
+  }
+
+  @Test
+  public void file_filter() throws Exception {
+    CoverageParser parser = mock(CoverageParser.class);
+    File reportFile = tmp.newFile("foo.xml");
+    CoverageCache cache = new CoverageCache(Long.MAX_VALUE, tmp.newFolder("cache"));
+    Predicate<String> fileFilter = Predicates.equalTo("foo.cs");
+
+    Coverage coverage = cache.readCoverageFromCacheOrParse(parser, reportFile, fileFilter);
+    assertThat(coverage.fileFilter()).isSameAs(fileFilter);
+    assertThat(cache.readCoverageFromCacheOrParse(parser, reportFile, fileFilter)).isSameAs(coverage);
+    verify(parser, Mockito.times(1)).parse(Mockito.eq(reportFile), Mockito.any(Coverage.class));
+
+    assertThat(cache.readCoverageFromCacheOrParse(parser, reportFile, Predicates.equalTo("foo.cs"))).isSameAs(coverage);
+    assertThat(cache.readCoverageFromCacheOrParse(parser, reportFile, Predicates.equalTo("bar.cs"))).isNotSameAs(coverage);
+    assertThat(cache.readCoverageFromCacheOrParse(parser, reportFile).fileFilter()).isSameAs(Predicates.<String>alwaysTrue());
+    verify(parser, Mockito.times(3)).parse(Mockito.eq(reportFile), Mockito.any(Coverage.class));
+    assertThat(new File(tmp.getRoot(), "cache").list()).hasSize(1);
+  }
+
+  @Test
+  public void persistent_cache_with_base_dir_file_filter() throws Exception {
+    File reportFile = tmp.newFile("report.xml");
+    Files.write("<report />", reportFile, Charsets.UTF_8);
+    File directory = tmp.newFolder("cache");
+    File baseDir = tmp.newFolder("project");
+    final String foo = new File(baseDir, "Foo.cs").getCanonicalPath();
+    final String bar = new File(tmp.getRoot(), "Bar.cs").getCanonicalPath();
+    CoverageParser parser = mock(CoverageParser.class);
+    Mockito.doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        Coverage coverage = (Coverage) invocation.getArguments()[1];
+        coverage.addHits(foo, 1, 2);
+        coverage.addHits(bar, 1, 2);
+        return null;
+      }
+    }).when(parser).parse(Mockito.any(File.class), Mockito.any(Coverage.class));
+
+    assertThat(new CoverageCache(0, directory).readCoverageFromCacheOrParse(parser, reportFile, new BaseDirFileFilter(baseDir)).files()).containsOnly(foo);
+    Coverage persisted = new CoverageCache(0, directory).readCoverageFromCacheOrParse(parser, reportFile, new BaseDirFileFilter(baseDir));
+    assertThat(persisted.files()).containsOnly(foo);
+    assertThat(persisted.fileFilter()).isEqualTo(new BaseDirFileFilter(baseDir));
+    verify(parser, Mockito.times(1)).parse(Mockito.eq(reportFile), Mockito.any(Coverage.class));
+
+    assertThat(new CoverageCache(0, directory).readCoverageFromCacheOrParse(parser, reportFile, new BaseDirFileFilter(tmp.getRoot())).files()).containsOnly(foo, bar);
+    assertThat(new CoverageCache(0, directory).readCoverageFromCacheOrParse(parser, reportFile).files()).containsOnly(foo, bar);
+    verify(parser, Mockito.times(3)).parse(Mockito.eq(reportFile), Mockito.any(Coverage.class));
+    assertThat(directory.list()).hasSize(3);
+  }
+
+  @Test
+  public void too_large_reports_are_not_cached() {
+    CoverageParser parser = mock(CoverageParser.class);
+    CoverageCache cache = new CoverageCache(0);
+
+    cache.readCoverageFromCacheOrParse(parser, new File("foo"));
+    cache.readCoverageFromCacheOrParse(parser, new File("foo"));
+    verify(parser, Mockito.times(2)).parse(Mockito.eq(new File("foo")), Mockito.any(Coverage.class));
+    assertThat(cache.memoryUsage()).isEqualTo(0);
+  }
+
+  @Test
+  public void persistent_cache() throws Exception {
+    File reportFile = tmp.newFile("report.xml");
+    Files.write("<report />", reportFile, Charsets.UTF_8);
+    File directory = tmp.newFolder("cache");
+    CoverageParser parser = mock(CoverageParser.class);
+    Mockito.doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        ((Coverage) invocation.getArguments()[1]).addHits("foo.cs", 1, 2);
+        return null;
+      }
+    }).when(parser).parse(Mockito.any(File.class), Mockito.any(Coverage.class));
+
+    Coverage coverage = new CoverageCache(0, directory).readCoverageFromCacheOrParse(parser, reportFile);
+    assertThat(coverage.hits("foo.cs")).isEqualTo(ImmutableMap.of(1, 2));
+    verify(parser, Mockito.times(1)).parse(Mockito.eq(reportFile), Mockito.any(Coverage.class));
+
+    coverage = new CoverageCache(0, directory).readCoverageFromCacheOrParse(parser, reportFile);
+    assertThat(coverage.hits("foo.cs")).isEqualTo(ImmutableMap.of(1, 2));
+    verify(parser, Mockito.times(1)).parse(Mockito.eq(reportFile), Mockito.any(Coverage.class));
+
+    Files.append(" ", reportFile, Charsets.UTF_8);
+    new CoverageCache(0, directory).readCoverageFromCacheOrParse(parser, reportFile);
+    verify(parser, Mockito.times(2)).parse(Mockito.eq(reportFile), Mockito.any(Coverage.class));
+  }
+
+  @Test
+  public void dotcover_html_reports_are_not_persisted() throws Exception {
+    File reportFile = tmp.newFile("report.html");
+    File directory = tmp.newFolder("cache");
+    DotCoverReportsAggregator parser = mock(DotCoverReportsAggregator.class);
+
+    new CoverageCache(0, directory).readCoverageFromCacheOrParse(parser, reportFile);
+    new CoverageCache(0, directory).readCoverageFromCacheOrParse(parser, reportFile);
+    verify(parser, Mockito.times(2)).parse(Mockito.eq(reportFile), Mockito.any(Coverage.class));
+    assertThat(directory.list()).isEmpty();
+  }
+
+  @Test
+  public void concurrent_requests_share_a_single_parse() throws Exception {
+    final CountDownLatch parsing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger parses = new AtomicInteger();
+    final CoverageParser parser = new CoverageParser() {
+      @Override
+      public void parse(File file, Coverage coverage) {
+        parses.incrementAndGet();
+        parsing.countDown();
+        awaitUninterruptibly(release);
+        coverage.addHits("foo.cs", 1, 1);
+      }
+    };
+    final CoverageCache cache = new CoverageCache();
+    final File reportFile = new File("foo.xml");
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<Coverage>> futures = Lists.newArrayList();
+    for (int i = 0; i < 4; i++) {
+      futures.add(executor.submit(new Callable<Coverage>() {
+        @Override
+        public Coverage call() {
+          return cache.readCoverageFromCacheOrParse(parser, reportFile);
+        }
+      }));
+    }
+    parsing.await();
+    release.countDown();
+
+    Coverage coverage = futures.get(0).get();
+    for (Future<Coverage> future : futures) {
+      assertThat(future.get()).isSameAs(coverage);
+    }
+    executor.shutdown();
+    assertThat(parses.get()).isEqualTo(1);
+    assertThat(coverage.hits("foo.cs")).isEqualTo(ImmutableMap.of(1, 1));
+  }
+
+  @Test
+  public void failed_parse_is_propagated_and_not_cached() throws Exception {
+    final AtomicInteger parses = new AtomicInteger();
+    CoverageParser parser = new CoverageParser() {
+      @Override
+      public void parse(File file, Coverage coverage) {
+        if (parses.incrementAndGet() == 1) {
+          throw new ParseErrorException("Invalid report");
+        }
+      }
+    };
+    CoverageCache cache = new CoverageCache();
+
+    try {
+      cache.readCoverageFromCacheOrParse(parser, new File("foo.xml"));
+      fail();
+    } catch (ParseErrorException e) {
+      assertThat(e.getMessage()).isEqualTo("Invalid report");
+    }
+
+    assertThat(cache.readCoverageFromCacheOrParse(parser, new File("foo.xml"))).isNotNull();
+    assertThat(parses.get()).isEqualTo(2);
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Test
+  public void negative_max_memory_usage() {
+    thrown.expectMessage("The maximum memory usage of the coverage cache cannot be negative: -1");
+    new CoverageCache(-1);
+  }
+
 }
@@ -19,21 +19,23 @@
  */
 package org.sonar.plugins.dotnet.tests;
 
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.sonar.api.batch.SensorContext;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.fs.internal.DefaultFileSystem;
 import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.config.Settings;
 import org.sonar.api.measures.CoreMetrics;
 import org.sonar.api.measures.Measure;
 import org.sonar.api.measures.Metric;
 import org.sonar.api.resources.Project;
 
+import java.io.File;
 import java.util.List;
 
 import static org.fest.assertions.Assertions.assertThat;
@@ -55,22 +57,22 @@ public class CoverageReportImportSensorTest {
 
     when(coverageAggregator.hasCoverageProperty()).thenReturn(false);
     assertThat(new CoverageReportImportSensor(coverageConf, coverageAggregator, mock(FileSystem.class)).shouldExecuteOnProject(project)).isFalse();
+
+    AggregatedCoverage aggregatedCoverage = mock(AggregatedCoverage.class);
+    when(aggregatedCoverage.hasCoverageProperty(coverageConf)).thenReturn(true);
+    assertThat(new CoverageReportImportSensor(coverageConf, coverageAggregator, mock(FileSystem.class), aggregatedCoverage).shouldExecuteOnProject(project)).isTrue();
+    when(aggregatedCoverage.hasCoverageProperty(coverageConf)).thenReturn(false);
+    when(coverageAggregator.hasCoverageProperty()).thenReturn(true);
+    assertThat(new CoverageReportImportSensor(coverageConf, coverageAggregator, mock(FileSystem.class), aggregatedCoverage).shouldExecuteOnProject(project)).isFalse();
   }
 
   @Test
   public void analyze() {
-    Coverage coverage = mock(Coverage.class);
-    when(coverage.files()).thenReturn(ImmutableSet.of("Foo.cs", "Bar.cs", "Baz.java"));
-    when(coverage.hits("Foo.cs")).thenReturn(ImmutableMap.<Integer, Integer>builder()
-      .put(24, 1)
-      .put(42, 0)
-      .build());
-    when(coverage.hits("Bar.cs")).thenReturn(ImmutableMap.<Integer, Integer>builder()
-      .put(42, 1)
-      .build());
-    when(coverage.hits("Baz.java")).thenReturn(ImmutableMap.<Integer, Integer>builder()
-      .put(42, 1)
-      .build());
+    Coverage coverage = new Coverage();
+    coverage.addHits("Foo.cs", 24, 1);
+    coverage.addHits("Foo.cs", 42, 0);
+    coverage.addHits("Bar.cs", 42, 1);
+    coverage.addHits("Baz.java", 42, 1);
 
     CoverageAggregator coverageAggregator = mock(CoverageAggregator.class);
 
@@ -96,6 +98,86 @@ public class CoverageReportImportSensorTest {
     checkMeasure(values.get(1), CoreMetrics.UNCOVERED_LINES, 1.0);
   }
 
+  @Test
+  public void analyse_modules_with_shared_aggregated_coverage() throws Exception {
+    final File root = new File("src/test/resources").getCanonicalFile();
+    final File moduleA = new File(root, "a");
+    final File moduleB = new File(root, "b");
+    final String fooPath = new File(moduleA, "Foo.cs").getPath();
+    final String barPath = new File(moduleB, "Bar.cs").getPath();
+
+    CoverageAggregator coverageAggregator = mock(CoverageAggregator.class);
+    CoverageAggregator projectCoverageAggregator = mock(CoverageAggregator.class);
+    when(projectCoverageAggregator.aggregate(Mockito.any(WildcardPatternFileProvider.class), Mockito.eq(new BaseDirFileFilter(root)))).thenAnswer(new Answer<Coverage>() {
+      @Override
+      public Coverage answer(InvocationOnMock invocation) {
+        Coverage coverage = new Coverage();
+        coverage.addHits(fooPath, 1, 1);
+        coverage.addHits(barPath, 1, 0);
+        return coverage;
+      }
+    });
+    CoverageConfiguration coverageConf = new CoverageConfiguration("cs", "", "", "", "");
+    AggregatedCoverage aggregatedCoverage = Mockito.spy(new AggregatedCoverage(new Settings(), root, new DirectoryListingCache()));
+    Mockito.doReturn(projectCoverageAggregator).when(aggregatedCoverage).coverageAggregator(coverageConf);
+
+    DefaultFileSystem fsA = new DefaultFileSystem().setBaseDir(moduleA);
+    InputFile foo = new DefaultInputFile("Foo.cs").setAbsolutePath(fooPath).setLanguage("cs");
+    fsA.add(foo);
+    FileSystem fsC = mock(FileSystem.class);
+    when(fsC.baseDir()).thenReturn(new File(root, "c"));
+
+    SensorContext contextA = mock(SensorContext.class);
+    new CoverageReportImportSensor(coverageConf, coverageAggregator, fsA, aggregatedCoverage).analyse(mock(Project.class), contextA);
+    verify(contextA, Mockito.times(3)).saveMeasure(Mockito.eq(foo), Mockito.any(Measure.class));
+
+    SensorContext contextC = mock(SensorContext.class);
+    new CoverageReportImportSensor(coverageConf, coverageAggregator, fsC, aggregatedCoverage).analyse(mock(Project.class), contextC);
+    verify(fsC, Mockito.never()).predicates();
+    verify(contextC, Mockito.never()).saveMeasure(Mockito.any(InputFile.class), Mockito.any(Measure.class));
+
+    verify(projectCoverageAggregator, Mockito.times(1)).aggregate(Mockito.any(WildcardPatternFileProvider.class), Mockito.eq(new BaseDirFileFilter(root)));
+    verify(coverageAggregator, Mockito.never()).aggregate(Mockito.any(WildcardPatternFileProvider.class));
+  }
+
+  @Test
+  public void analyse_module_without_aggregated_coverage() {
+    Coverage coverage = new Coverage();
+    coverage.addHits("Foo.cs", 24, 1);
+
+    CoverageAggregator coverageAggregator = mock(CoverageAggregator.class);
+    when(coverageAggregator.aggregate(Mockito.any(WildcardPatternFileProvider.class))).thenReturn(coverage);
+
+    DefaultFileSystem fs = new DefaultFileSystem();
+    InputFile inputFile = new DefaultInputFile("Foo.cs").setAbsolutePath("Foo.cs").setLanguage("cs");
+    fs.add(inputFile);
+
+    SensorContext context = mock(SensorContext.class);
+    new CoverageReportImportSensor(new CoverageConfiguration("cs", "", "", "", ""), coverageAggregator, fs).analyse(mock(Project.class), context);
+
+    verify(context, Mockito.times(3)).saveMeasure(Mockito.eq(inputFile), Mockito.any(Measure.class));
+  }
+
+  @Test
+  public void analyse_matches_paths_ignoring_case_only_on_case_insensitive_file_systems() throws Exception {
+    File baseDir = new File("src/test/resources").getCanonicalFile();
+    Coverage coverage = new Coverage();
+    coverage.addHits(new File(baseDir, "foo.cs").getPath(), 24, 1);
+
+    CoverageAggregator coverageAggregator = mock(CoverageAggregator.class);
+    when(coverageAggregator.aggregate(Mockito.any(WildcardPatternFileProvider.class))).thenReturn(coverage);
+
+    DefaultFileSystem fs = new DefaultFileSystem().setBaseDir(baseDir);
+    InputFile inputFile = new DefaultInputFile("Foo.cs").setAbsolutePath(new File(baseDir, "Foo.cs").getPath()).setLanguage("cs");
+    fs.add(inputFile);
+
+    SensorContext context = mock(SensorContext.class);
+    new CoverageReportImportSensor(new CoverageConfiguration("cs", "", "", "", ""), coverageAggregator, fs).analyse(mock(Project.class), context);
+
+    int expectedMeasures = FileSystemCaseSensitivity.isCaseInsensitive(baseDir) ? 3 : 0;
+    verify(context, Mockito.times(expectedMeasures)).saveMeasure(Mockito.eq(inputFile), Mockito.any(Measure.class));
+  }
+
   private static void checkMeasure(Measure measure, Metric metric, Double value) {
     assertThat(measure.getMetric()).isEqualTo(metric);
     assertThat(measure.getValue()).isEqualTo(value);
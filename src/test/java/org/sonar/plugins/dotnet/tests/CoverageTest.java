@@ -19,7 +19,11 @@
  */
 package org.sonar.plugins.dotnet.tests;
 
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import java.util.Map;
 import org.junit.Test;
 
 import static org.fest.assertions.Assertions.assertThat;
@@ -69,4 +73,112 @@ public class CoverageTest {
     assertThat(coverage.hits("baz.txt")).isEqualTo(ImmutableMap.of(2, 7));
   }
 
+  @Test
+  public void file_ids() {
+    FilePathDictionary dictionary = new FilePathDictionary();
+    Coverage coverage = new Coverage(dictionary);
+    assertThat(coverage.dictionary()).isSameAs(dictionary);
+
+    int fooId = coverage.fileId("foo.txt");
+    assertThat(coverage.fileId("foo.txt")).isEqualTo(fooId);
+    assertThat(coverage.files()).isEmpty();
+
+    coverage.addHits(fooId, 42, 1);
+    coverage.addHits("foo.txt", 42, 2);
+    coverage.addHits(coverage.fileId("bar.txt"), 1, 3);
+    assertThat(coverage.files()).containsOnly("foo.txt", "bar.txt");
+    assertThat(coverage.hits("foo.txt")).isEqualTo(ImmutableMap.of(42, 3));
+    assertThat(coverage.hits("bar.txt")).isEqualTo(ImmutableMap.of(1, 3));
+
+    Coverage sameDictionary = new Coverage(dictionary);
+    sameDictionary.addHits("bar.txt", 1, 1);
+    Coverage otherDictionary = new Coverage();
+    otherDictionary.addHits("baz.txt", 2, 7);
+    otherDictionary.addHits("foo.txt", 42, 1);
+
+    coverage.mergeWith(sameDictionary);
+    coverage.mergeWith(otherDictionary);
+    assertThat(coverage.files()).containsOnly("foo.txt", "bar.txt", "baz.txt");
+    assertThat(coverage.hits("foo.txt")).isEqualTo(ImmutableMap.of(42, 4));
+    assertThat(coverage.hits("bar.txt")).isEqualTo(ImmutableMap.of(1, 4));
+    assertThat(coverage.hits("baz.txt")).isEqualTo(ImmutableMap.of(2, 7));
+  }
+
+  @Test
+  public void merge_does_not_add_hits_to_non_executable_lines() {
+    Coverage coverage = new Coverage();
+    coverage.addHits("foo.txt", 1, 5);
+    coverage.addHits("foo.txt", 3, 0);
+
+    Coverage other = new Coverage();
+    other.addHits("foo.txt", 2, 1);
+
+    coverage.mergeWith(other);
+    assertThat(coverage.hits("foo.txt")).isEqualTo(ImmutableMap.of(1, 5, 2, 1, 3, 0));
+  }
+
+  @Test
+  public void file_filter() {
+    Coverage coverage = new Coverage(new FilePathDictionary(), Predicates.equalTo("foo.txt"));
+    assertThat(coverage.fileId("bar.txt")).isEqualTo(FilePathDictionary.UNKNOWN_FILE_ID);
+    coverage.addHits("foo.txt", 1, 1);
+    coverage.addHits("bar.txt", 1, 1);
+    coverage.addHits(FilePathDictionary.UNKNOWN_FILE_ID, 2, 1);
+    assertThat(coverage.files()).containsOnly("foo.txt");
+    assertThat(coverage.dictionary().size()).isEqualTo(1);
+
+    Coverage other = new Coverage();
+    other.addHits("foo.txt", 2, 3);
+    other.addHits("baz.txt", 1, 1);
+    coverage.mergeWith(other);
+    assertThat(coverage.files()).containsOnly("foo.txt");
+    assertThat(coverage.hits("foo.txt")).isEqualTo(ImmutableMap.of(1, 1, 2, 3));
+  }
+
+  @Test
+  public void merge_copies_on_write() {
+    Coverage coverage = new Coverage();
+    Coverage other = new Coverage(coverage.dictionary());
+    other.addHits("foo.txt", 1, 1);
+
+    coverage.mergeWith(other);
+    assertThat(coverage.hits("foo.txt")).isEqualTo(ImmutableMap.of(1, 1));
+
+    coverage.addHits("foo.txt", 1, 1);
+    assertThat(coverage.hits("foo.txt")).isEqualTo(ImmutableMap.of(1, 2));
+    assertThat(other.hits("foo.txt")).isEqualTo(ImmutableMap.of(1, 1));
+
+    Coverage another = new Coverage();
+    another.mergeWith(other);
+    other.addHits("foo.txt", 2, 3);
+    assertThat(other.hits("foo.txt")).isEqualTo(ImmutableMap.of(1, 1, 2, 3));
+    assertThat(another.hits("foo.txt")).isEqualTo(ImmutableMap.of(1, 1));
+
+    coverage.mergeWith(coverage);
+    assertThat(coverage.hits("foo.txt")).isEqualTo(ImmutableMap.of(1, 4));
+  }
+
+  @Test
+  public void for_each_hit() {
+    Coverage coverage = new Coverage();
+    coverage.addHits("foo.txt", 1234, 11);
+    coverage.addHits("foo.txt", 42, 4);
+    coverage.addHits("bar.txt", 1, 2);
+
+    final Map<Integer, Integer> visited = Maps.newLinkedHashMap();
+    LineHitsVisitor visitor = new LineHitsVisitor() {
+      @Override
+      public void visitLine(int line, int hits) {
+        visited.put(line, hits);
+      }
+    };
+
+    coverage.forEachHit("baz.txt", visitor);
+    assertThat(visited).isEmpty();
+
+    coverage.forEachHit("foo.txt", visitor);
+    assertThat(ImmutableList.copyOf(visited.keySet())).isEqualTo(ImmutableList.of(42, 1234));
+    assertThat(visited).isEqualTo(ImmutableMap.of(42, 4, 1234, 11));
+  }
+
 }
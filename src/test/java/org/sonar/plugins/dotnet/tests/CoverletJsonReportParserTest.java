@@ -0,0 +1,100 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import com.google.common.base.Predicates;
+import org.fest.assertions.MapAssert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class CoverletJsonReportParserTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void invalid_root() {
+    thrown.expect(ParseErrorException.class);
+    thrown.expectMessage("Expected '{' in ");
+    thrown.expectMessage("invalid_root.json at line 1");
+    new CoverletJsonReportParser().parse(new File("src/test/resources/coverlet_json/invalid_root.json"), mock(Coverage.class));
+  }
+
+  @Test
+  public void non_existing_file() {
+    thrown.expect(RuntimeException.class);
+    thrown.expectMessage("non_existing_file.json");
+    new CoverletJsonReportParser().parse(new File("src/test/resources/coverlet_json/non_existing_file.json"), mock(Coverage.class));
+  }
+
+  @Test
+  public void invalid_hits() {
+    thrown.expect(ParseErrorException.class);
+    thrown.expectMessage("Expected an integer in ");
+    thrown.expectMessage("invalid_hits.json at line 7");
+    new CoverletJsonReportParser().parse(new File("src/test/resources/coverlet_json/invalid_hits.json"), new Coverage());
+  }
+
+  @Test
+  public void valid() throws Exception {
+    Coverage coverage = new Coverage();
+    new CoverletJsonReportParser().parse(new File("src/test/resources/coverlet_json/valid.json"), coverage);
+
+    String calc = new File("MyLibrary\\Calc.cs").getCanonicalPath();
+    String other = new File("MyLibrary\\Other.cs").getCanonicalPath();
+    assertThat(coverage.files()).containsOnly(calc, other);
+
+    assertThat(coverage.hits(calc))
+      .hasSize(7)
+      .includes(
+        MapAssert.entry(12, 0),
+        MapAssert.entry(13, 0),
+        MapAssert.entry(14, 0),
+        MapAssert.entry(17, 2),
+        MapAssert.entry(18, 2),
+        MapAssert.entry(19, 2),
+        MapAssert.entry(22, 1));
+
+    assertThat(coverage.hits(other))
+      .hasSize(1)
+      .includes(MapAssert.entry(3, 0));
+  }
+
+  @Test
+  public void file_filter() throws Exception {
+    String calc = new File("MyLibrary\\Calc.cs").getCanonicalPath();
+    Coverage coverage = new Coverage(new FilePathDictionary(), Predicates.equalTo(calc));
+    new CoverletJsonReportParser().parse(new File("src/test/resources/coverlet_json/valid.json"), coverage);
+
+    assertThat(coverage.files()).containsOnly(calc);
+  }
+
+  @Test
+  public void should_not_fail_with_invalid_path() {
+    new CoverletJsonReportParser().parse(new File("src/test/resources/coverlet_json/invalid_path.json"), mock(Coverage.class));
+  }
+
+}
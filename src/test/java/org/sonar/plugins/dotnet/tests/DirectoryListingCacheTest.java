@@ -0,0 +1,115 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import java.io.File;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.plugins.dotnet.tests.DirectoryListingCache.FileAttributes;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class DirectoryListingCacheTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void test() throws Exception {
+    File foo = tmp.newFile("foo.txt");
+    Files.write("foo", foo, Charsets.UTF_8);
+    File bar = tmp.newFolder("bar");
+    java.nio.file.Files.createSymbolicLink(new File(tmp.getRoot(), "broken").toPath(), new File(tmp.getRoot(), "nonexisting").toPath());
+
+    DirectoryListingCache cache = new DirectoryListingCache();
+    assertThat(cache.list(tmp.getRoot().toPath())).containsOnly(foo.toPath(), bar.toPath(), new File(tmp.getRoot(), "broken").toPath());
+
+    FileAttributes attributes = cache.attributes(foo.toPath());
+    assertThat(attributes.isFile()).isTrue();
+    assertThat(attributes.isDirectory()).isFalse();
+    assertThat(attributes.size()).isEqualTo(3);
+    assertThat(attributes.lastModified()).isEqualTo(foo.lastModified());
+
+    assertThat(cache.attributes(bar.toPath()).isDirectory()).isTrue();
+    assertThat(cache.attributes(new File(tmp.getRoot(), "broken").toPath()).isBrokenLink()).isTrue();
+    assertThat(cache.attributes(new File(tmp.getRoot(), "nonexisting").toPath())).isNull();
+
+    assertThat(cache.list(foo.toPath())).isEmpty();
+    assertThat(cache.list(new File(tmp.getRoot(), "nonexisting").toPath())).isEmpty();
+  }
+
+  @Test
+  public void directories_are_read_once() throws Exception {
+    Path root = tmp.getRoot().toPath();
+    File foo = tmp.newFile("foo.txt");
+
+    DirectoryListingCache cache = new DirectoryListingCache();
+    assertThat(cache.list(root)).containsOnly(foo.toPath());
+    assertThat(cache.attributes(foo.toPath()).size()).isEqualTo(0);
+
+    tmp.newFile("bar.txt");
+    Files.write("foo", foo, Charsets.UTF_8);
+    assertThat(cache.list(root)).containsOnly(foo.toPath());
+    assertThat(cache.attributes(foo.toPath()).size()).isEqualTo(0);
+
+    WildcardPatternFileProvider provider = new WildcardPatternFileProvider(tmp.getRoot(), File.separator, cache);
+    assertThat(provider.matchFiles(ImmutableList.of("*.txt")).keySet()).containsOnly(foo);
+    assertThat(provider.attributes(foo).size()).isEqualTo(0);
+
+    assertThat(new DirectoryListingCache().list(root)).hasSize(2);
+  }
+
+  @Test
+  public void missing_files_are_not_cached() throws Exception {
+    Path root = tmp.getRoot().toPath();
+    File foo = new File(tmp.getRoot(), "foo");
+
+    DirectoryListingCache cache = new DirectoryListingCache();
+    assertThat(cache.attributes(foo.toPath())).isNull();
+    assertThat(cache.list(foo.toPath())).isEmpty();
+
+    File bar = new File(tmp.newFolder("foo"), "bar.txt");
+    bar.createNewFile();
+    assertThat(cache.attributes(foo.toPath()).isDirectory()).isTrue();
+    assertThat(cache.list(foo.toPath())).containsOnly(bar.toPath());
+    assertThat(cache.list(root)).containsOnly(foo.toPath());
+  }
+
+  @Test
+  public void least_recently_used_paths_are_evicted() throws Exception {
+    File foo = tmp.newFolder("foo");
+    File bar = tmp.newFolder("bar");
+
+    DirectoryListingCache cache = new DirectoryListingCache(1);
+    assertThat(cache.list(foo.toPath())).isEmpty();
+    assertThat(cache.list(bar.toPath())).isEmpty();
+
+    File baz = new File(foo, "baz.txt");
+    baz.createNewFile();
+    assertThat(cache.list(bar.toPath())).isEmpty();
+    assertThat(cache.list(foo.toPath())).containsOnly(baz.toPath());
+  }
+
+}
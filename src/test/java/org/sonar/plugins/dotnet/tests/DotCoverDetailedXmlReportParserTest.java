@@ -0,0 +1,90 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import org.fest.assertions.MapAssert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class DotCoverDetailedXmlReportParserTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void invalid_root() {
+    thrown.expect(RuntimeException.class);
+    thrown.expectMessage("<Root>");
+    new DotCoverDetailedXmlReportParser().parse(new File("src/test/resources/dotcover_detailed_xml/invalid_root.xml"), mock(Coverage.class));
+  }
+
+  @Test
+  public void non_existing_file() {
+    thrown.expect(RuntimeException.class);
+    thrown.expectMessage("non_existing_file.xml");
+    new DotCoverDetailedXmlReportParser().parse(new File("src/test/resources/dotcover_detailed_xml/non_existing_file.xml"), mock(Coverage.class));
+  }
+
+  @Test
+  public void wrong_covered() {
+    thrown.expect(RuntimeException.class);
+    thrown.expectMessage("Unsupported \"Covered\" value \"Yes\", expected one of \"True\" or \"False\"");
+    thrown.expectMessage("wrong_covered.xml");
+    thrown.expectMessage("line 7");
+    new DotCoverDetailedXmlReportParser().parse(new File("src/test/resources/dotcover_detailed_xml/wrong_covered.xml"), mock(Coverage.class));
+  }
+
+  @Test
+  public void valid() throws Exception {
+    Coverage coverage = new Coverage();
+    new DotCoverDetailedXmlReportParser().parse(new File("src/test/resources/dotcover_detailed_xml/valid.xml"), coverage);
+
+    assertThat(coverage.files()).containsOnly(
+      new File("MyLibrary\\Calc.cs").getCanonicalPath(),
+      new File("MyLibrary\\Other.cs").getCanonicalPath());
+
+    assertThat(coverage.hits(new File("MyLibrary\\Calc.cs").getCanonicalPath()))
+      .hasSize(7)
+      .includes(
+        MapAssert.entry(12, 0),
+        MapAssert.entry(13, 0),
+        MapAssert.entry(14, 0),
+        MapAssert.entry(17, 1),
+        MapAssert.entry(18, 1),
+        MapAssert.entry(19, 1),
+        MapAssert.entry(22, 0));
+
+    assertThat(coverage.hits(new File("MyLibrary\\Other.cs").getCanonicalPath()))
+      .hasSize(1)
+      .includes(MapAssert.entry(3, 0));
+  }
+
+  @Test
+  public void should_not_fail_with_invalid_path() {
+    new DotCoverDetailedXmlReportParser().parse(new File("src/test/resources/dotcover_detailed_xml/invalid_path.xml"), mock(Coverage.class));
+  }
+
+}
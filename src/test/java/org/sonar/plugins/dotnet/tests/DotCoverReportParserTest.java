@@ -19,10 +19,14 @@
  */
 package org.sonar.plugins.dotnet.tests;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
 import org.fest.assertions.MapAssert;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
 
@@ -34,18 +38,22 @@ public class DotCoverReportParserTest {
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
   @Test
   public void no_title() {
     thrown.expect(IllegalArgumentException.class);
-    thrown.expectMessage("The report contents does not match the following regular expression: .*?<title>(.*?)</title>.*");
+    thrown.expectMessage("Missing <title> element in the dotCover report: ");
+    thrown.expectMessage("no_title.html");
     new DotCoverReportParser().parse(new File("src/test/resources/dotcover/no_title.html"), mock(Coverage.class));
   }
 
   @Test
   public void no_highlight() {
     thrown.expect(IllegalArgumentException.class);
-    thrown.expectMessage("The report contents does not match the following regular expression: "
-      + ".*<script type=\"text/javascript\">\\s*+highlightRanges\\(\\[(.*?)\\]\\);\\s*+</script>.*");
+    thrown.expectMessage("Missing <script type=\"text/javascript\">highlightRanges([...]);</script> in the dotCover report: ");
+    thrown.expectMessage("no_highlight.html");
     new DotCoverReportParser().parse(new File("src/test/resources/dotcover/no_highlight.html"), mock(Coverage.class));
   }
 
@@ -83,4 +91,35 @@ public class DotCoverReportParserTest {
     new DotCoverReportParser().parse(new File("src/test/resources/dotcover/invalid_path.html"), mock(Coverage.class));
   }
 
+  @Test
+  public void last_highlight_ranges() throws Exception {
+    File file = tmp.newFile("last_highlight_ranges.html");
+    Files.write("<!DOCTYPE html><html><head><title>foo.cs</title></head><body><pre>" + Strings.repeat("<script> ]); [[1,1,1,1,1]]\n", 1000) + "</pre>"
+      + "<script type=\"text/javascript\">highlightRanges([[1,1,1,1,1]]);</script>"
+      + "<script type=\"text/javascript\">\n  highlightRanges([[2,9,2,10,3],[3,9],[[4,9,4,10,0],[5,1,5,2,-1],[6,1,6,2,7]]);\n</script>"
+      + "<script type=\"text/javascript\">highlightRanges([[7,1,7,1,1]]); foo</script></body></html>", file, Charsets.UTF_8);
+
+    Coverage coverage = new Coverage();
+    new DotCoverReportParser().parse(file, coverage);
+
+    assertThat(coverage.hits(new File("foo.cs").getCanonicalPath()))
+      .hasSize(3)
+      .includes(
+        MapAssert.entry(2, 3),
+        MapAssert.entry(4, 0),
+        MapAssert.entry(6, 7));
+  }
+
+  @Test
+  public void too_large_integer() throws Exception {
+    File file = tmp.newFile("too_large_integer.html");
+    Files.write("<!DOCTYPE html><html><head><title>foo.cs</title></head><body>"
+      + "<script type=\"text/javascript\">highlightRanges([[1,1,1,1,2147483647],[2,1,2,1,2147483648]]);</script></body></html>", file, Charsets.UTF_8);
+
+    thrown.expect(ParseErrorException.class);
+    thrown.expectMessage("Too large integer in the highlightRanges([...]) of the dotCover report: ");
+    thrown.expectMessage("too_large_integer.html");
+    new DotCoverReportParser().parse(file, mock(Coverage.class));
+  }
+
 }
@@ -19,13 +19,22 @@
  */
 package org.sonar.plugins.dotnet.tests;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.io.Files;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
 
+import static org.fest.assertions.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 
@@ -34,6 +43,9 @@ public class DotCoverReportsAggregatorTest {
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
   @Test
   public void no_sources() {
     thrown.expect(IllegalArgumentException.class);
@@ -68,4 +80,50 @@ public class DotCoverReportsAggregatorTest {
     verify(parser, Mockito.never()).parse(new File("src/test/resources/dotcover_aggregator/foo.bar/src/nosource.html"), coverage);
   }
 
+  @Test
+  public void parallel() throws Exception {
+    final File report = tmp.newFile("report.html");
+    Files.write("<!DOCTYPE html><html></html>", report, Charsets.UTF_8);
+    File src = tmp.newFolder("report", "src");
+    for (int i = 0; i < 100; i++) {
+      Files.write("", new File(src, i + ".html"), Charsets.UTF_8);
+    }
+
+    DotCoverReportParser parser = mock(DotCoverReportParser.class);
+    Mockito.doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        File page = (File) invocation.getArguments()[0];
+        Coverage coverage = (Coverage) invocation.getArguments()[1];
+        coverage.addHits(page.getName().replace(".html", ".cs"), 1, 1);
+        coverage.addHits("common.cs", 1, 1);
+        return null;
+      }
+    }).when(parser).parse(Mockito.any(File.class), Mockito.any(Coverage.class));
+
+    final DotCoverReportsAggregator aggregator = new DotCoverReportsAggregator(parser);
+    final Coverage coverage = new Coverage(new FilePathDictionary(), new Predicate<String>() {
+      @Override
+      public boolean apply(String input) {
+        return !"0.cs".equals(input);
+      }
+    });
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      pool.submit(new Callable<Void>() {
+        @Override
+        public Void call() {
+          aggregator.parse(report, coverage);
+          return null;
+        }
+      }).get();
+    } finally {
+      pool.shutdown();
+    }
+
+    assertThat(coverage.files()).hasSize(100).excludes("0.cs");
+    assertThat(coverage.hits("99.cs").get(1)).isEqualTo(1);
+    assertThat(coverage.hits("common.cs").get(1)).isEqualTo(100);
+  }
+
 }
@@ -0,0 +1,56 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class FilePathDictionaryTest {
+
+  @Test
+  public void test() {
+    FilePathDictionary dictionary = new FilePathDictionary();
+    assertThat(dictionary.size()).isEqualTo(0);
+    assertThat(dictionary.lookup("foo.txt")).isEqualTo(FilePathDictionary.UNKNOWN_FILE_ID);
+
+    assertThat(dictionary.intern("foo.txt")).isEqualTo(0);
+    assertThat(dictionary.intern("bar.txt")).isEqualTo(1);
+    assertThat(dictionary.intern(new String("foo.txt"))).isEqualTo(0);
+    assertThat(dictionary.size()).isEqualTo(2);
+
+    assertThat(dictionary.lookup("bar.txt")).isEqualTo(1);
+    assertThat(dictionary.lookup("baz.txt")).isEqualTo(FilePathDictionary.UNKNOWN_FILE_ID);
+    assertThat(dictionary.size()).isEqualTo(2);
+
+    assertThat(dictionary.path(0)).isEqualTo("foo.txt");
+    assertThat(dictionary.path(1)).isEqualTo("bar.txt");
+  }
+
+  @Test
+  public void paths_are_shared() {
+    FilePathDictionary dictionary = new FilePathDictionary();
+    String path = "foo.txt";
+    dictionary.intern(path);
+
+    assertThat(dictionary.path(dictionary.intern(new String("foo.txt")))).isSameAs(path);
+  }
+
+}
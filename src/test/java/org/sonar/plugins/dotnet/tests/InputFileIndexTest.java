@@ -0,0 +1,61 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import org.junit.Test;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultFileSystem;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class InputFileIndexTest {
+
+  @Test
+  public void test() {
+    DefaultFileSystem fs = new DefaultFileSystem();
+    InputFile foo = new DefaultInputFile("Foo.cs").setAbsolutePath("/project/src/Foo.cs").setLanguage("cs");
+    InputFile bar1 = new DefaultInputFile("Bar.cs").setAbsolutePath("/project/src/Bar.cs").setLanguage("cs");
+    InputFile bar2 = new DefaultInputFile("bar.cs").setAbsolutePath("/project/src/bar.cs").setLanguage("cs");
+    InputFile fooTest = new DefaultInputFile("FooTest.cs").setAbsolutePath("/project/src/FooTest.cs").setLanguage("cs").setType(InputFile.Type.TEST);
+    fs.add(foo);
+    fs.add(bar1);
+    fs.add(bar2);
+    fs.add(fooTest);
+
+    InputFileIndex index = new InputFileIndex(fs, false);
+    assertThat(index.inputFile("/project/src/Foo.cs")).isSameAs(foo);
+    assertThat(index.inputFile("\\project\\src\\Foo.cs")).isSameAs(foo);
+    assertThat(index.inputFile("/project/src/foo.cs")).isNull();
+    assertThat(index.inputFile("/project/src/FooTest.cs")).isNull();
+    assertThat(index.inputFile("/project/src/Baz.cs")).isNull();
+    assertThat(index.inputFile("/../Foo.cs")).isNull();
+
+    index = new InputFileIndex(fs, true);
+    assertThat(index.inputFile("/project/src/Foo.cs")).isSameAs(foo);
+    assertThat(index.inputFile("/project/src/foo.cs")).isSameAs(foo);
+    assertThat(index.inputFile("/PROJECT/SRC/FOO.CS")).isSameAs(foo);
+    assertThat(index.inputFile("/project/src/Bar.cs")).isSameAs(bar1);
+    assertThat(index.inputFile("/project/src/bar.cs")).isSameAs(bar2);
+    assertThat(index.inputFile("/project/src/BAR.cs")).isNull();
+    assertThat(index.inputFile("/project/src/footest.cs")).isNull();
+  }
+
+}
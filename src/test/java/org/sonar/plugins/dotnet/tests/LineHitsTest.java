@@ -0,0 +1,176 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import java.util.Map;
+import java.util.Random;
+import org.fest.assertions.MapAssert;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class LineHitsTest {
+
+  @Test
+  public void test() {
+    LineHits lineHits = new LineHits();
+    assertThat(lineHits.size()).isEqualTo(0);
+    assertThat(lineHits.toMap()).isEmpty();
+
+    lineHits.addHits(42, 1);
+    lineHits.addHits(42, 3);
+    lineHits.addHits(20000, 0);
+    lineHits.addHits(1, 2);
+    lineHits.addHits(64, 5);
+    lineHits.addHits(65, 6);
+    assertThat(lineHits.size()).isEqualTo(5);
+    assertThat(lineHits.toMap()).isEqualTo(ImmutableMap.of(1, 2, 42, 4, 64, 5, 65, 6, 20000, 0));
+  }
+
+  @Test
+  public void widening() {
+    LineHits lineHits = new LineHits();
+    lineHits.addHits(1, 255);
+    lineHits.addHits(2, 1);
+    assertThat(lineHits.toMap()).isEqualTo(ImmutableMap.of(1, 255, 2, 1));
+
+    lineHits.addHits(2, 255);
+    assertThat(lineHits.toMap()).isEqualTo(ImmutableMap.of(1, 255, 2, 256));
+
+    lineHits.addHits(3, 65535);
+    assertThat(lineHits.toMap()).isEqualTo(ImmutableMap.of(1, 255, 2, 256, 3, 65535));
+
+    lineHits.addHits(3, 1);
+    lineHits.addHits(4, Integer.MAX_VALUE);
+    assertThat(lineHits.toMap()).isEqualTo(ImmutableMap.of(1, 255, 2, 256, 3, 65536, 4, Integer.MAX_VALUE));
+
+    LineHits negative = new LineHits();
+    negative.addHits(1, 1);
+    negative.addHits(2, -1);
+    assertThat(negative.toMap()).isEqualTo(ImmutableMap.of(1, 1, 2, -1));
+  }
+
+  @Test
+  public void random_lines() {
+    Random random = new Random(42);
+    LineHits lineHits = new LineHits();
+    Map<Integer, Integer> expected = Maps.newHashMap();
+
+    for (int i = 0; i < 10000; i++) {
+      int line = 1 + random.nextInt(3000);
+      int hits = random.nextInt(i < 5000 ? 10 : 100000);
+      lineHits.addHits(line, hits);
+      Integer previous = expected.get(line);
+      expected.put(line, previous == null ? hits : previous + hits);
+    }
+
+    assertThat(lineHits.size()).isEqualTo(expected.size());
+    assertThat(lineHits.toMap()).isEqualTo(expected);
+  }
+
+  @Test
+  public void out_of_order_lines_between_reads() {
+    LineHits lineHits = new LineHits();
+    lineHits.addHits(10, 1);
+    lineHits.addHits(10, 2);
+    lineHits.addHits(5, 300);
+    lineHits.addHits(200, 1);
+    assertThat(lineHits.size()).isEqualTo(3);
+    assertThat(lineHits.toMap()).isEqualTo(ImmutableMap.of(5, 300, 10, 3, 200, 1));
+
+    lineHits.addHits(300, 1);
+    lineHits.addHits(5, 1);
+    lineHits.addHits(7, 0);
+    long memoryUsage = lineHits.estimatedMemoryUsage();
+    lineHits.compact();
+    assertThat(lineHits.estimatedMemoryUsage()).isEqualTo(memoryUsage);
+    assertThat(lineHits.toMap()).isEqualTo(ImmutableMap.of(5, 301, 7, 0, 10, 3, 200, 1, 300, 1));
+
+    LineHits copy = lineHits.copy();
+    copy.addHits(1, 1);
+    assertThat(copy.size()).isEqualTo(6);
+    assertThat(copy.toMap()).includes(MapAssert.entry(1, 1), MapAssert.entry(5, 301));
+    assertThat(lineHits.size()).isEqualTo(5);
+  }
+
+  @Test
+  public void merge() {
+    LineHits lineHits = new LineHits();
+    lineHits.addHits(2, 1);
+    lineHits.addHits(100, 0);
+
+    LineHits other = new LineHits();
+    other.addHits(1, 1);
+    other.addHits(100, 300);
+
+    lineHits.mergeWith(other);
+    assertThat(lineHits.toMap()).isEqualTo(ImmutableMap.of(1, 1, 2, 1, 100, 300));
+    assertThat(other.toMap()).isEqualTo(ImmutableMap.of(1, 1, 100, 300));
+
+    LineHits subset = new LineHits();
+    subset.addHits(2, 70000);
+    lineHits.mergeWith(subset);
+    assertThat(lineHits.toMap()).isEqualTo(ImmutableMap.of(1, 1, 2, 70001, 100, 300));
+
+    lineHits.mergeWith(new LineHits());
+    lineHits.mergeWith(lineHits);
+    assertThat(lineHits.toMap()).isEqualTo(ImmutableMap.of(1, 2, 2, 140002, 100, 600));
+  }
+
+  @Test
+  public void random_merge() {
+    Random random = new Random(42);
+    Map<Integer, Integer> expected = Maps.newHashMap();
+    LineHits merged = new LineHits();
+
+    for (int i = 0; i < 100; i++) {
+      LineHits lineHits = new LineHits();
+      for (int j = 0; j < 50; j++) {
+        int line = 1 + random.nextInt(i * 10 + 10);
+        int hits = random.nextInt(i < 50 ? 100 : 1000);
+        lineHits.addHits(line, hits);
+        Integer previous = expected.get(line);
+        expected.put(line, previous == null ? hits : previous + hits);
+      }
+      merged.mergeWith(lineHits);
+    }
+
+    assertThat(merged.toMap()).isEqualTo(expected);
+  }
+
+  @Test
+  public void copy() {
+    LineHits lineHits = new LineHits();
+    lineHits.addHits(1, 1);
+    assertThat(lineHits.isShared()).isFalse();
+    assertThat(lineHits.share()).isSameAs(lineHits);
+    assertThat(lineHits.isShared()).isTrue();
+
+    LineHits copy = lineHits.copy();
+    assertThat(copy.isShared()).isFalse();
+    copy.addHits(1, 1000);
+    copy.addHits(2, 1);
+    assertThat(copy.toMap()).isEqualTo(ImmutableMap.of(1, 1001, 2, 1));
+    assertThat(lineHits.toMap()).isEqualTo(ImmutableMap.of(1, 1));
+  }
+
+}
@@ -19,6 +19,7 @@
  */
 package org.sonar.plugins.dotnet.tests;
 
+import com.google.common.base.Predicates;
 import org.fest.assertions.MapAssert;
 import org.junit.Rule;
 import org.junit.Test;
@@ -60,6 +61,17 @@ public class OpenCoverReportParserTest {
     new OpenCoverReportParser().parse(new File("src/test/resources/opencover/non_existing_file.xml"), mock(Coverage.class));
   }
 
+  @Test
+  public void file_filter() throws Exception {
+    final String adder = new File("MyLibrary\\Adder.cs").getCanonicalPath();
+    Coverage coverage = new Coverage(new FilePathDictionary(), Predicates.equalTo(adder));
+    new OpenCoverReportParser().parse(new File("src/test/resources/opencover/valid.xml"), coverage);
+
+    assertThat(coverage.files()).containsOnly(adder);
+    assertThat(coverage.hits(adder)).hasSize(15);
+    assertThat(coverage.dictionary().size()).isEqualTo(1);
+  }
+
   @Test
   public void valid() throws Exception {
     Coverage coverage = new Coverage();
@@ -0,0 +1,152 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PersistentCoverageCacheTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private final ReportFingerprint fingerprint = new ReportFingerprint("report.xml", 42, 1000, "abc");
+
+  @Test
+  public void write_and_read() throws Exception {
+    File directory = new File(tmp.getRoot(), "cache");
+    PersistentCoverageCache cache = new PersistentCoverageCache(directory);
+    assertThat(cache.read(fingerprint, "parser", new FilePathDictionary())).isNull();
+
+    Coverage coverage = new Coverage();
+    coverage.addHits("foo.cs", 1, 2);
+    coverage.addHits("foo.cs", 20000, 0);
+    coverage.addHits("bar.cs", 3, 300);
+    coverage.addHits("baz.cs", 4, 70000);
+    cache.write(fingerprint, "parser", coverage);
+    assertThat(directory.list()).hasSize(1);
+
+    FilePathDictionary dictionary = new FilePathDictionary();
+    Coverage read = new PersistentCoverageCache(directory).read(fingerprint, "parser", dictionary);
+    assertThat(read.dictionary()).isSameAs(dictionary);
+    assertThat(read.files()).containsOnly("foo.cs", "bar.cs", "baz.cs");
+    assertThat(read.hits("foo.cs")).isEqualTo(ImmutableMap.of(1, 2, 20000, 0));
+    assertThat(read.hits("bar.cs")).isEqualTo(ImmutableMap.of(3, 300));
+    assertThat(read.hits("baz.cs")).isEqualTo(ImmutableMap.of(4, 70000));
+
+    read.addHits("foo.cs", 2, 1);
+    assertThat(read.hits("foo.cs")).isEqualTo(ImmutableMap.of(1, 2, 2, 1, 20000, 0));
+
+    assertThat(cache.read(fingerprint, "otherParser", new FilePathDictionary())).isNull();
+    assertThat(cache.read(new ReportFingerprint("other.xml", 42, 1000, "abc"), "parser", new FilePathDictionary())).isNull();
+  }
+
+  @Test
+  public void file_filter_restored_on_read() throws Exception {
+    File directory = tmp.newFolder("cache");
+    PersistentCoverageCache cache = new PersistentCoverageCache(directory);
+    Coverage coverage = new Coverage(new FilePathDictionary(), Predicates.equalTo("foo.cs"));
+    coverage.addHits("foo.cs", 1, 2);
+    coverage.addHits("bar.cs", 1, 2);
+    cache.write(fingerprint, "parser", coverage);
+    assertThat(directory.list()).hasSize(1);
+
+    Coverage read = cache.read(fingerprint, "parser", new FilePathDictionary(), Predicates.equalTo("foo.cs"));
+    assertThat(read.fileFilter()).isEqualTo(Predicates.equalTo("foo.cs"));
+    assertThat(read.files()).containsOnly("foo.cs");
+    assertThat(cache.read(fingerprint, "parser", new FilePathDictionary()).fileFilter()).isSameAs(Predicates.<String>alwaysTrue());
+  }
+
+  @Test
+  public void content_hash_only_checked_when_last_modification_time_changed() throws Exception {
+    File directory = tmp.newFolder("cache");
+    PersistentCoverageCache cache = new PersistentCoverageCache(directory);
+    Coverage coverage = new Coverage();
+    coverage.addHits("foo.cs", 1, 2);
+    cache.write(fingerprint, "parser", coverage);
+
+    assertThat(cache.read(new ReportFingerprint("report.xml", 42, 1000, "abd"), "parser", new FilePathDictionary())).isNotNull();
+    assertThat(cache.read(new ReportFingerprint("report.xml", 43, 1000, "abc"), "parser", new FilePathDictionary())).isNull();
+    assertThat(cache.read(new ReportFingerprint("report.xml", 42, 1001, "abd"), "parser", new FilePathDictionary())).isNull();
+
+    ReportFingerprint touched = new ReportFingerprint("report.xml", 42, 1001, "abc");
+    assertThat(cache.read(touched, "parser", new FilePathDictionary()).hits("foo.cs")).isEqualTo(ImmutableMap.of(1, 2));
+    assertThat(cache.read(new ReportFingerprint("report.xml", 42, 1001, "abd"), "parser", new FilePathDictionary())).isNotNull();
+    assertThat(cache.read(fingerprint, "parser", new FilePathDictionary())).isNotNull();
+    assertThat(directory.list()).hasSize(1);
+  }
+
+  @Test
+  public void unused_entries_are_pruned() throws Exception {
+    File directory = tmp.newFolder("cache");
+    PersistentCoverageCache cache = new PersistentCoverageCache(directory);
+    Coverage coverage = new Coverage();
+    coverage.addHits("foo.cs", 1, 2);
+    cache.write(fingerprint, "parser", coverage);
+    cache.write(fingerprint, "otherParser", coverage);
+    File interruptedWrite = new File(directory, "abc.coverage.tmp1");
+    Files.write(new byte[] {1, 2}, interruptedWrite);
+
+    long twoDaysAgo = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2);
+    for (File file : directory.listFiles()) {
+      assertThat(file.setLastModified(twoDaysAgo)).isTrue();
+    }
+    assertThat(new PersistentCoverageCache(directory, TimeUnit.DAYS.toMillis(3)).read(fingerprint, "parser", new FilePathDictionary())).isNotNull();
+    assertThat(interruptedWrite.exists()).isFalse();
+    assertThat(directory.list()).hasSize(2);
+
+    new PersistentCoverageCache(directory, TimeUnit.DAYS.toMillis(1));
+    assertThat(directory.list()).hasSize(1);
+    assertThat(cache.read(fingerprint, "parser", new FilePathDictionary())).isNotNull();
+    assertThat(cache.read(fingerprint, "otherParser", new FilePathDictionary())).isNull();
+
+    new PersistentCoverageCache(new File(tmp.getRoot(), "missing"));
+  }
+
+  @Test
+  public void corrupted_entries_are_ignored_and_deleted() throws Exception {
+    File directory = tmp.newFolder("cache");
+    PersistentCoverageCache cache = new PersistentCoverageCache(directory);
+    Coverage coverage = new Coverage();
+    coverage.addHits("foo.cs", 1, 2);
+    cache.write(fingerprint, "parser", coverage);
+
+    File entry = directory.listFiles()[0];
+    byte[] bytes = Files.toByteArray(entry);
+    bytes[bytes.length / 2] ^= 1;
+    Files.write(bytes, entry);
+
+    assertThat(cache.read(fingerprint, "parser", new FilePathDictionary())).isNull();
+    assertThat(entry.exists()).isFalse();
+
+    Files.write(new byte[] {1, 2}, entry);
+    assertThat(cache.read(fingerprint, "parser", new FilePathDictionary())).isNull();
+    assertThat(entry.exists()).isFalse();
+  }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * SonarQube .NET Tests Library
+ * Copyright (C) 2014-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.dotnet.tests;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import java.io.File;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ReportFingerprintTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void test() throws Exception {
+    File foo = tmp.newFile("foo.xml");
+    Files.write("<foo />", foo, Charsets.UTF_8);
+    File bar = tmp.newFile("bar.xml");
+    Files.write("<bar />", bar, Charsets.UTF_8);
+
+    ReportFingerprint fingerprint = ReportFingerprint.of(foo);
+    assertThat(fingerprint.path()).isEqualTo(foo.toPath().toRealPath().toString());
+    assertThat(fingerprint.size()).isEqualTo(7);
+    assertThat(fingerprint.lastModified()).isEqualTo(foo.lastModified());
+    assertThat(fingerprint.contentHash()).hasSize(32);
+
+    assertThat(ReportFingerprint.of(foo)).isEqualTo(fingerprint);
+    assertThat(ReportFingerprint.of(foo).hashCode()).isEqualTo(fingerprint.hashCode());
+    assertThat(ReportFingerprint.of(bar)).isNotEqualTo(fingerprint);
+    assertThat(ReportFingerprint.of(bar).contentHash()).isNotEqualTo(fingerprint.contentHash());
+  }
+
+  @Test
+  public void real_path() throws Exception {
+    File foo = tmp.newFile("foo.xml");
+    File link = new File(tmp.getRoot(), "link.xml");
+    java.nio.file.Files.createSymbolicLink(link.toPath(), foo.toPath());
+
+    assertThat(ReportFingerprint.realPath(link)).isEqualTo(ReportFingerprint.realPath(foo));
+    assertThat(ReportFingerprint.realPath(new File(tmp.getRoot(), "missing.xml"))).isEqualTo(new File(tmp.getRoot(), "missing.xml").getAbsolutePath());
+  }
+
+}
@@ -20,6 +20,7 @@
 package org.sonar.plugins.dotnet.tests;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 import java.io.File;
 import org.junit.Rule;
 import org.junit.Test;
@@ -85,7 +86,7 @@ public class UnitTestResultsAggregatorTest {
     // Visual Studio test results only
     when(settings.hasKey("visualStudioTestResultsFile")).thenReturn(true);
     when(settings.getString("visualStudioTestResultsFile")).thenReturn("foo.trx");
-    when(wildcardPatternFileProvider.listFiles("foo.trx")).thenReturn(ImmutableSet.of(new File("foo.trx")));
+    when(wildcardPatternFileProvider.matchFiles(ImmutableSet.of("foo.trx"))).thenReturn(ImmutableSetMultimap.of(new File("foo.trx"), "foo.trx"));
     when(settings.hasKey("nunitTestResultsFile")).thenReturn(false);
     when(settings.hasKey("xunitTestResultsFile")).thenReturn(false);
     VisualStudioTestResultsFileParser visualStudioTestResultsFileParser = mock(VisualStudioTestResultsFileParser.class);
@@ -102,7 +103,7 @@ public class UnitTestResultsAggregatorTest {
     when(settings.hasKey("nunitTestResultsFile")).thenReturn(true);
     when(settings.getString("nunitTestResultsFile")).thenReturn("foo.xml");
     when(settings.hasKey("xunitTestResultsFile")).thenReturn(false);
-    when(wildcardPatternFileProvider.listFiles("foo.xml")).thenReturn(ImmutableSet.of(new File("foo.xml")));
+    when(wildcardPatternFileProvider.matchFiles(ImmutableSet.of("foo.xml"))).thenReturn(ImmutableSetMultimap.of(new File("foo.xml"), "foo.xml"));
     visualStudioTestResultsFileParser = mock(VisualStudioTestResultsFileParser.class);
     nunitTestResultsFileParser = mock(NUnitTestResultsFileParser.class);
     xunitTestResultsFileParser = mock(XUnitTestResultsFileParser.class);
@@ -118,7 +119,7 @@ public class UnitTestResultsAggregatorTest {
     when(settings.hasKey("nunitTestResultsFile")).thenReturn(false);
     when(settings.hasKey("xunitTestResultsFile")).thenReturn(true);
     when(settings.getString("xunitTestResultsFile")).thenReturn("foo.xml");
-    when(wildcardPatternFileProvider.listFiles("foo.xml")).thenReturn(ImmutableSet.of(new File("foo.xml")));
+    when(wildcardPatternFileProvider.matchFiles(ImmutableSet.of("foo.xml"))).thenReturn(ImmutableSetMultimap.of(new File("foo.xml"), "foo.xml"));
     visualStudioTestResultsFileParser = mock(VisualStudioTestResultsFileParser.class);
     nunitTestResultsFileParser = mock(NUnitTestResultsFileParser.class);
     xunitTestResultsFileParser = mock(XUnitTestResultsFileParser.class);
@@ -131,12 +132,13 @@ public class UnitTestResultsAggregatorTest {
     // All configured
     when(settings.hasKey("visualStudioTestResultsFile")).thenReturn(true);
     when(settings.getString("visualStudioTestResultsFile")).thenReturn("foo.trx");
-    when(wildcardPatternFileProvider.listFiles("foo.trx")).thenReturn(ImmutableSet.of(new File("foo.trx")));
     when(settings.hasKey("nunitTestResultsFile")).thenReturn(true);
     when(settings.getString("nunitTestResultsFile")).thenReturn("foo.xml");
     when(settings.hasKey("xunitTestResultsFile")).thenReturn(true);
     when(settings.getString("xunitTestResultsFile")).thenReturn("foo.xml");
-    when(wildcardPatternFileProvider.listFiles("foo.trx")).thenReturn(ImmutableSet.of(new File("foo.trx")));
+    when(wildcardPatternFileProvider.matchFiles(ImmutableSet.of("foo.trx", "foo.xml"))).thenReturn(ImmutableSetMultimap.of(
+      new File("foo.trx"), "foo.trx",
+      new File("foo.xml"), "foo.xml"));
     visualStudioTestResultsFileParser = mock(VisualStudioTestResultsFileParser.class);
     nunitTestResultsFileParser = mock(NUnitTestResultsFileParser.class);
     xunitTestResultsFileParser = mock(XUnitTestResultsFileParser.class);
@@ -162,20 +164,21 @@ public class UnitTestResultsAggregatorTest {
     verify(xunitTestResultsFileParser, Mockito.never()).parse(Mockito.any(File.class), Mockito.any(UnitTestResults.class));
 
     // Multiple files configured
-    Mockito.reset(wildcardPatternFileProvider);
-
     when(settings.hasKey("visualStudioTestResultsFile")).thenReturn(true);
     when(settings.getString("visualStudioTestResultsFile")).thenReturn(",*.trx  ,bar.trx");
-    when(wildcardPatternFileProvider.listFiles("*.trx")).thenReturn(ImmutableSet.of(new File("foo.trx")));
-    when(wildcardPatternFileProvider.listFiles("bar.trx")).thenReturn(ImmutableSet.of(new File("bar.trx")));
     when(settings.hasKey("nunitTestResultsFile")).thenReturn(true);
     when(settings.getString("nunitTestResultsFile")).thenReturn(",foo.xml  ,bar.xml");
-    when(wildcardPatternFileProvider.listFiles("foo.xml")).thenReturn(ImmutableSet.of(new File("foo.xml")));
-    when(wildcardPatternFileProvider.listFiles("bar.xml")).thenReturn(ImmutableSet.of(new File("bar.xml")));
     when(settings.hasKey("xunitTestResultsFile")).thenReturn(true);
     when(settings.getString("xunitTestResultsFile")).thenReturn(",foo2.xml  ,bar2.xml");
-    when(wildcardPatternFileProvider.listFiles("foo2.xml")).thenReturn(ImmutableSet.of(new File("foo2.xml")));
-    when(wildcardPatternFileProvider.listFiles("bar2.xml")).thenReturn(ImmutableSet.of(new File("bar2.xml")));
+    when(wildcardPatternFileProvider.matchFiles(ImmutableSet.of("*.trx", "bar.trx", "foo.xml", "bar.xml", "foo2.xml", "bar2.xml"))).thenReturn(
+      ImmutableSetMultimap.<File, String>builder()
+        .put(new File("foo.trx"), "*.trx")
+        .put(new File("bar.trx"), "bar.trx")
+        .put(new File("foo.xml"), "foo.xml")
+        .put(new File("bar.xml"), "bar.xml")
+        .put(new File("foo2.xml"), "foo2.xml")
+        .put(new File("bar2.xml"), "bar2.xml")
+        .build());
     visualStudioTestResultsFileParser = mock(VisualStudioTestResultsFileParser.class);
     nunitTestResultsFileParser = mock(NUnitTestResultsFileParser.class);
     xunitTestResultsFileParser = mock(XUnitTestResultsFileParser.class);
@@ -184,10 +187,7 @@ public class UnitTestResultsAggregatorTest {
     new UnitTestResultsAggregator(unitTestConf, settings, visualStudioTestResultsFileParser, nunitTestResultsFileParser, xunitTestResultsFileParser)
       .aggregate(wildcardPatternFileProvider, results);
 
-    verify(wildcardPatternFileProvider).listFiles("*.trx");
-    verify(wildcardPatternFileProvider).listFiles("bar.trx");
-    verify(wildcardPatternFileProvider).listFiles("foo.xml");
-    verify(wildcardPatternFileProvider).listFiles("bar.xml");
+    verify(wildcardPatternFileProvider).matchFiles(ImmutableSet.of("*.trx", "bar.trx", "foo.xml", "bar.xml", "foo2.xml", "bar2.xml"));
 
     verify(visualStudioTestResultsFileParser).parse(new File("foo.trx"), results);
     verify(visualStudioTestResultsFileParser).parse(new File("bar.trx"), results);
@@ -20,6 +20,8 @@
 package org.sonar.plugins.dotnet.tests;
 
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.SetMultimap;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -27,6 +29,7 @@ import org.junit.rules.ExpectedException;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.util.List;
 import java.util.Set;
 
 import static org.fest.assertions.Assertions.assertThat;
@@ -171,6 +174,116 @@ public class WildcardPatternFileProviderTest {
         new File(tmp.getRoot(), path("c", "c22", "c31", "foo.txt")));
   }
 
+  @Test
+  public void wildcards_in_intermediate_folders() {
+    assertThat(listFiles(path("c", "*", "foo.txt"), tmp.getRoot()))
+      .containsOnly(new File(tmp.getRoot(), path("c", "c21", "foo.txt")));
+
+    assertThat(listFiles(path("*", "c2?", "*"), tmp.getRoot()))
+      .containsOnly(new File(tmp.getRoot(), path("c", "c21", "foo.txt")), new File(tmp.getRoot(), path("c", "c22", "c31")));
+
+    assertThat(listFiles(path("*", "*", "c31", "*.txt"), tmp.getRoot()))
+      .containsOnly(new File(tmp.getRoot(), path("c", "c22", "c31", "foo.txt")), new File(tmp.getRoot(), path("c", "c22", "c31", "bar.txt")));
+
+    assertThat(listFiles(path("c", "**", "c31", "b*"), tmp.getRoot()))
+      .containsOnly(new File(tmp.getRoot(), path("c", "c22", "c31", "bar.txt")));
+
+    assertThat(listFiles(path("a", "*", "foo.txt"), tmp.getRoot())).isEmpty();
+    assertThat(listFiles(path("foo.txt", "*"), tmp.getRoot())).isEmpty();
+  }
+
+  @Test
+  public void match_files() {
+    SetMultimap<File, String> patternsByFile = new WildcardPatternFileProvider(tmp.getRoot(), File.separator).matchFiles(ImmutableList.of(
+      path("**", "foo.txt"),
+      path("c", "*", "foo.txt"),
+      path("c", "c22", "**", "*.txt"),
+      path(".", "c", "c22", "c31", "b*"),
+      new File(tmp.getRoot(), path("a", "*.txt")).getAbsolutePath(),
+      "bar.txt",
+      "nonexisting.txt"));
+
+    assertThat(patternsByFile.keySet()).containsOnly(
+      new File(tmp.getRoot(), "foo.txt"),
+      new File(tmp.getRoot(), "bar.txt"),
+      new File(tmp.getRoot(), path("a", "foo.txt")),
+      new File(tmp.getRoot(), path("c", "c21", "foo.txt")),
+      new File(tmp.getRoot(), path("c", "c22", "c31", "foo.txt")),
+      new File(tmp.getRoot(), path("c", "c22", "c31", "bar.txt")));
+
+    assertThat(patternsByFile.get(new File(tmp.getRoot(), "foo.txt"))).containsOnly(path("**", "foo.txt"));
+    assertThat(patternsByFile.get(new File(tmp.getRoot(), "bar.txt"))).containsOnly("bar.txt");
+    assertThat(patternsByFile.get(new File(tmp.getRoot(), path("a", "foo.txt"))))
+      .containsOnly(path("**", "foo.txt"), new File(tmp.getRoot(), path("a", "*.txt")).getAbsolutePath());
+    assertThat(patternsByFile.get(new File(tmp.getRoot(), path("c", "c21", "foo.txt")))).containsOnly(path("**", "foo.txt"), path("c", "*", "foo.txt"));
+    assertThat(patternsByFile.get(new File(tmp.getRoot(), path("c", "c22", "c31", "foo.txt")))).containsOnly(path("**", "foo.txt"), path("c", "c22", "**", "*.txt"));
+    assertThat(patternsByFile.get(new File(tmp.getRoot(), path("c", "c22", "c31", "bar.txt"))))
+      .containsOnly(path("c", "c22", "**", "*.txt"), path(".", "c", "c22", "c31", "b*"));
+  }
+
+  @Test
+  public void match_files_sharing_walk_root() throws Exception {
+    File baseDir = tmp.newFolder("shared");
+    File x = new File(baseDir, path("a", "x", "file.xml"));
+    File y = new File(baseDir, path("other", "y", "file.xml"));
+    x.getParentFile().mkdirs();
+    y.getParentFile().mkdirs();
+    x.createNewFile();
+    y.createNewFile();
+
+    SetMultimap<File, String> patternsByFile = new WildcardPatternFileProvider(baseDir, File.separator).matchFiles(ImmutableList.of(
+      path("*", "x", "file.xml"),
+      path("**", "file.xml")));
+
+    assertThat(patternsByFile.keySet()).containsOnly(x, y);
+    assertThat(patternsByFile.get(x)).containsOnly(path("*", "x", "file.xml"), path("**", "file.xml"));
+    assertThat(patternsByFile.get(y)).containsOnly(path("**", "file.xml"));
+  }
+
+  @Test
+  public void non_native_directory_separator_after_first_wildcard() {
+    String separator = "/".equals(File.separator) ? "\\" : "/";
+
+    assertThat(listFiles(Joiner.on(separator).join("c", "*", "foo.txt"), tmp.getRoot()))
+      .containsOnly(new File(tmp.getRoot(), path("c", "c21", "foo.txt")));
+
+    assertThat(listFiles(Joiner.on(separator).join("?", "foo.txt"), tmp.getRoot()))
+      .containsOnly(new File(tmp.getRoot(), path("a", "foo.txt")));
+
+    assertThat(listFiles(Joiner.on(separator).join("c", "c2?", "c31", "b*"), tmp.getRoot()))
+      .containsOnly(new File(tmp.getRoot(), path("c", "c22", "c31", "bar.txt")));
+  }
+
+  @Test
+  public void parallel_walk() throws Exception {
+    java.nio.file.Files.createSymbolicLink(new File(tmp.getRoot(), path("c", "c22", "loop")).toPath(), new File(tmp.getRoot(), "c").toPath());
+    java.nio.file.Files.createSymbolicLink(new File(tmp.getRoot(), path("a", "link")).toPath(), new File(tmp.getRoot(), path("c", "c22")).toPath());
+    java.nio.file.Files.createSymbolicLink(new File(tmp.getRoot(), path("b", "broken")).toPath(), new File(tmp.getRoot(), "nonexisting").toPath());
+
+    List<String> patterns = ImmutableList.of(path("**", "foo.txt"), path("**", "*"), path("?", "**", "c3?"), path("c", "*", "foo.txt"), "*.txt");
+    WildcardPatternFileProvider provider = new WildcardPatternFileProvider(tmp.getRoot(), File.separator);
+    SetMultimap<File, String> patternsByFile = provider.matchFiles(patterns);
+
+    assertThat(patternsByFile.keySet()).contains(
+      new File(tmp.getRoot(), path("c", "c22", "c31")),
+      new File(tmp.getRoot(), path("a", "link", "c31", "foo.txt")),
+      new File(tmp.getRoot(), path("a", "link", "loop", "c21", "foo.txt")),
+      new File(tmp.getRoot(), path("b", "broken")));
+    assertThat(patternsByFile.keySet()).excludes(new File(tmp.getRoot(), path("c", "c22", "loop")));
+
+    for (int parallelism = 2; parallelism <= 4; parallelism++) {
+      assertThat(provider.matchFiles(patterns, parallelism)).isEqualTo(patternsByFile);
+    }
+  }
+
+  @Test
+  public void invalid_parallelism() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("The parallelism must be a positive number of threads, got: 0");
+
+    new WildcardPatternFileProvider(tmp.getRoot(), File.separator).matchFiles(ImmutableList.of(path("**", "foo.txt")), 0);
+  }
+
   @Test
   public void should_fail_with_current_folder_access_after_wildcard() {
     thrown.expect(IllegalArgumentException.class);
@@ -19,17 +19,29 @@
  */
 package org.sonar.plugins.dotnet.tests;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Assume;
+import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import static org.fest.assertions.Assertions.assertThat;
 
 public class XmlParserHelperTest {
 
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
   @Test
   public void invalid_prolog() {
     thrown.expectMessage("Error while parsing the XML file: ");
@@ -38,4 +50,128 @@ public class XmlParserHelperTest {
     new XmlParserHelper(new File("src/test/resources/xml_parser_helper/invalid_prolog.txt")).nextTag();
   }
 
+  @Test
+  public void encoding_from_prolog() {
+    XmlParserHelper xmlParserHelper = new XmlParserHelper(new File("src/test/resources/xml_parser_helper/iso_8859_1.xml"));
+    try {
+      xmlParserHelper.checkRootTag("root");
+      assertThat(xmlParserHelper.getRequiredAttribute("name")).isEqualTo("caf\u00e9");
+    } finally {
+      xmlParserHelper.close();
+    }
+  }
+
+  @Test
+  public void depth() throws IOException {
+    File file = tmp.newFile("depth.xml");
+    Files.write("<root><a><b>text</b><c /></a><d /></root>", file, Charsets.UTF_8);
+
+    XmlParserHelper xmlParserHelper = new XmlParserHelper(file);
+    try {
+      xmlParserHelper.checkRootTag("root");
+      assertThat(xmlParserHelper.depth()).isEqualTo(1);
+      assertThat(xmlParserHelper.nextTag()).isEqualTo("a");
+      assertThat(xmlParserHelper.depth()).isEqualTo(2);
+      assertThat(xmlParserHelper.nextTag()).isEqualTo("b");
+      assertThat(xmlParserHelper.getElementText()).isEqualTo("text");
+      assertThat(xmlParserHelper.nextTag()).isEqualTo("c");
+      assertThat(xmlParserHelper.depth()).isEqualTo(3);
+      assertThat(xmlParserHelper.nextTag()).isEqualTo("d");
+      assertThat(xmlParserHelper.depth()).isEqualTo(2);
+    } finally {
+      xmlParserHelper.close();
+    }
+  }
+
+  @Test
+  public void int_attributes() throws IOException {
+    File file = tmp.newFile("int_attributes.xml");
+    Files.write("<root><e a=\"1\" b=\" 42 \" c=\"-3\" /></root>", file, Charsets.UTF_8);
+
+    for (boolean typedAttributeAccess : new boolean[] {true, false}) {
+      XmlParserHelper xmlParserHelper = new XmlParserHelper(file, typedAttributeAccess);
+      try {
+        xmlParserHelper.checkRootTag("root");
+        assertThat(xmlParserHelper.nextTag()).isEqualTo("e");
+        assertThat(xmlParserHelper.getRequiredIntAttribute("a")).isEqualTo(1);
+        assertThat(xmlParserHelper.getRequiredIntAttribute(new String("c"))).isEqualTo(-3);
+        assertThat(xmlParserHelper.getIntAttributeOrZero("d")).isEqualTo(0);
+        assertThat(xmlParserHelper.getAttribute("b")).isEqualTo(" 42 ");
+        assertThat(xmlParserHelper.getRequiredIntAttribute("b")).isEqualTo(42);
+      } finally {
+        xmlParserHelper.close();
+      }
+    }
+  }
+
+  @Test
+  public void typed_and_string_attribute_access_agree() throws IOException {
+    int sequencePoints = 1000;
+    File file = writeSequencePoints(sequencePoints);
+
+    long expectedChecksum = 0;
+    for (int i = 0; i < sequencePoints; i++) {
+      expectedChecksum += i + i % 7;
+    }
+    assertThat(readSequencePoints(file, true)).isEqualTo(expectedChecksum);
+    assertThat(readSequencePoints(file, false)).isEqualTo(expectedChecksum);
+  }
+
+  /**
+   * Micro-benchmark of the OpenCover hot path, which reads the "sl" and "vc" attributes of every sequence point.
+   * Allocation counters depend on the JVM, so it is left out of the unit tests and meant to be run by hand.
+   */
+  @Ignore("Micro-benchmark")
+  @Test
+  public void int_attributes_allocation() throws IOException {
+    Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled());
+
+    int sequencePoints = 100000;
+    File file = writeSequencePoints(sequencePoints);
+
+    readSequencePoints(file, true);
+    readSequencePoints(file, false);
+
+    long threadId = Thread.currentThread().getId();
+    long before = threadMXBean.getThreadAllocatedBytes(threadId);
+    readSequencePoints(file, true);
+    long typed = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+
+    before = threadMXBean.getThreadAllocatedBytes(threadId);
+    readSequencePoints(file, false);
+    long string = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+
+    assertThat(typed)
+      .as("Allocated bytes per sequence point: " + typed / sequencePoints + " with typed attribute access, " + string / sequencePoints + " through strings")
+      .isLessThan(string);
+  }
+
+  private File writeSequencePoints(int sequencePoints) throws IOException {
+    File file = tmp.newFile("sequence_points.xml");
+    StringBuilder sb = new StringBuilder("<CoverageSession>");
+    for (int i = 0; i < sequencePoints; i++) {
+      sb.append("<SequencePoint vc=\"").append(i % 7).append("\" uspid=\"").append(i).append("\" ordinal=\"0\" offset=\"0\" sl=\"")
+        .append(i).append("\" sc=\"9\" el=\"").append(i).append("\" ec=\"10\" />");
+    }
+    sb.append("</CoverageSession>");
+    Files.write(sb, file, Charsets.UTF_8);
+    return file;
+  }
+
+  private static long readSequencePoints(File file, boolean typedAttributeAccess) {
+    long checksum = 0;
+    XmlParserHelper xmlParserHelper = new XmlParserHelper(file, typedAttributeAccess);
+    try {
+      xmlParserHelper.checkRootTag("CoverageSession");
+      while (xmlParserHelper.nextTag() != null) {
+        checksum += xmlParserHelper.getRequiredIntAttribute("sl") + xmlParserHelper.getRequiredIntAttribute("vc");
+      }
+    } finally {
+      xmlParserHelper.close();
+    }
+    return checksum;
+  }
+
 }